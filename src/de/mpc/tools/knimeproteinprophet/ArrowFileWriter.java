@@ -0,0 +1,699 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Writes columns into a file of the Apache Arrow IPC file format (also known
+ * as Feather V2), which is read e.g. by <code>pyarrow.feather.read_table</code>,
+ * <code>pandas.read_feather</code> or <code>arrow::read_feather</code> in R.<p>
+ * Only the few types needed by the exports are supported: 32 bit integers,
+ * doubles, booleans and UTF-8 strings, all nullable. The values are
+ * collected in {@link Vector}s and written as one record batch by each call
+ * of {@link #writeBatch()}, so the memory usage is bounded by the batch size.
+ * The buffers of the record batches are compressed with LZ4_FRAME by the
+ * {@link LZ4FrameCompressor}, each prefixed by its uncompressed length as
+ * required by the Arrow body compression. A buffer, which does not get
+ * smaller, is stored uncompressed with the length -1. The flatbuffer
+ * metadata is serialized directly, so no Arrow library is needed.
+ *
+ * @author julianu
+ */
+public class ArrowFileWriter {
+
+	/** the magic bytes at the start and end of the file */
+	private static final byte[] MAGIC = {'A', 'R', 'R', 'O', 'W', '1'};
+
+	/** the continuation marker before each message */
+	private static final int CONTINUATION = 0xFFFFFFFF;
+
+	/** MetadataVersion.V5 */
+	private static final short METADATA_VERSION = 4;
+
+	/** the MessageHeader union types */
+	private static final byte HEADER_SCHEMA = 1;
+	private static final byte HEADER_RECORDBATCH = 3;
+
+	/** the Type union types */
+	private static final byte TYPE_INT = 2;
+	private static final byte TYPE_FLOATINGPOINT = 3;
+	private static final byte TYPE_UTF8 = 5;
+	private static final byte TYPE_BOOL = 6;
+
+	/** Precision.DOUBLE */
+	private static final short PRECISION_DOUBLE = 2;
+
+	/** CompressionType.LZ4_FRAME */
+	private static final byte COMPRESSION_LZ4_FRAME = 0;
+
+	/** BodyCompressionMethod.BUFFER */
+	private static final byte COMPRESSION_METHOD_BUFFER = 0;
+
+	/** the uncompressed length of a buffer, which is stored uncompressed */
+	private static final long UNCOMPRESSED_BUFFER = -1;
+
+
+	/** the supported column types */
+	public enum Type {
+		INT32("int32"),
+		FLOAT64("float64"),
+		BOOL("bool"),
+		UTF8("string");
+
+		private String name;
+
+		private Type(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+
+	/**
+	 * The values of one column for the current record batch.
+	 */
+	public static class Vector {
+		private String name;
+		private Type type;
+
+		private int size;
+		private int nullCount;
+		private byte[] validity;
+		private int[] ints;
+		private double[] doubles;
+		private byte[] bools;
+		private int[] offsets;
+		private ByteArrayOutputStream data;
+
+		public Vector(String name, Type type) {
+			this.name = name;
+			this.type = type;
+			this.validity = new byte[128];
+			this.data = new ByteArrayOutputStream();
+			switch (type) {
+			case INT32:
+				ints = new int[1024];
+				break;
+
+			case FLOAT64:
+				doubles = new double[1024];
+				break;
+
+			case BOOL:
+				bools = new byte[128];
+				break;
+
+			case UTF8:
+				offsets = new int[1025];
+				break;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public void addNull() {
+			ensureCapacity();
+			nullCount++;
+			if (type == Type.UTF8) {
+				offsets[size + 1] = offsets[size];
+			}
+			size++;
+		}
+
+		public void addInt(int value) {
+			ensureCapacity();
+			ints[size] = value;
+			setValid();
+		}
+
+		public void addDouble(double value) {
+			ensureCapacity();
+			doubles[size] = value;
+			setValid();
+		}
+
+		public void addBoolean(boolean value) {
+			ensureCapacity();
+			if (value) {
+				bools[size >> 3] |= 1 << (size & 7);
+			}
+			setValid();
+		}
+
+		public void addString(String value) throws IOException {
+			ensureCapacity();
+			data.write(value.getBytes("UTF-8"));
+			offsets[size + 1] = data.size();
+			setValid();
+		}
+
+		private void setValid() {
+			validity[size >> 3] |= 1 << (size & 7);
+			size++;
+		}
+
+		private void ensureCapacity() {
+			if ((size >> 3) < validity.length) {
+				return;
+			}
+			validity = Arrays.copyOf(validity, validity.length * 2);
+			if (ints != null) {
+				ints = Arrays.copyOf(ints, ints.length * 2);
+			}
+			if (doubles != null) {
+				doubles = Arrays.copyOf(doubles, doubles.length * 2);
+			}
+			if (bools != null) {
+				bools = Arrays.copyOf(bools, bools.length * 2);
+			}
+			if (offsets != null) {
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			}
+		}
+
+		/**
+		 * @return the buffers of the vector in the order of the Arrow layout
+		 */
+		private List<byte[]> getBuffers() {
+			List<byte[]> buffers = new ArrayList<byte[]>(3);
+			int bitmapLength = (size + 7) >> 3;
+			buffers.add(Arrays.copyOf(validity, bitmapLength));
+
+			ByteBuffer values;
+			switch (type) {
+			case INT32:
+				values = ByteBuffer.allocate(4 * size).order(ByteOrder.LITTLE_ENDIAN);
+				values.asIntBuffer().put(ints, 0, size);
+				buffers.add(values.array());
+				break;
+
+			case FLOAT64:
+				values = ByteBuffer.allocate(8 * size).order(ByteOrder.LITTLE_ENDIAN);
+				values.asDoubleBuffer().put(doubles, 0, size);
+				buffers.add(values.array());
+				break;
+
+			case BOOL:
+				buffers.add(Arrays.copyOf(bools, bitmapLength));
+				break;
+
+			case UTF8:
+				values = ByteBuffer.allocate(4 * (size + 1)).order(ByteOrder.LITTLE_ENDIAN);
+				values.asIntBuffer().put(offsets, 0, size + 1);
+				buffers.add(values.array());
+				buffers.add(data.toByteArray());
+				break;
+			}
+
+			return buffers;
+		}
+
+		/**
+		 * Removes all values, after they are written.
+		 */
+		private void clear() {
+			Arrays.fill(validity, (byte) 0);
+			if (bools != null) {
+				Arrays.fill(bools, (byte) 0);
+			}
+			data.reset();
+			size = 0;
+			nullCount = 0;
+		}
+	}
+
+
+	/** the written stream */
+	private OutputStream out;
+
+	/** the current position in the file */
+	private long position;
+
+	/** the written columns */
+	private List<Vector> vectors;
+
+	/** the serialized schema, repeated in the footer */
+	private FlatTable schema;
+
+	/** the blocks of the written record batches for the footer */
+	private ByteArrayOutputStream recordBatchBlocks;
+
+	/** the number of written record batches */
+	private int recordBatchCount;
+
+	/** compresses the buffers of the record batches */
+	private LZ4FrameCompressor compressor;
+
+
+	/**
+	 * Creates the file and writes the schema of the given columns.
+	 *
+	 * @param file
+	 * @param vectors
+	 * @throws IOException
+	 */
+	public ArrowFileWriter(File file, List<Vector> vectors) throws IOException {
+		this.out = new BufferedOutputStream(new FileOutputStream(file));
+		this.position = 0;
+		this.vectors = vectors;
+		this.recordBatchBlocks = new ByteArrayOutputStream();
+		this.recordBatchCount = 0;
+		this.compressor = new LZ4FrameCompressor();
+
+		try {
+			write(MAGIC);
+			write(new byte[2]);
+
+			List<FlatTable> fields = new ArrayList<FlatTable>(vectors.size());
+			for (Vector vector : vectors) {
+				fields.add(createField(vector));
+			}
+			schema = new FlatTable(4)
+					.addShort(0, (short) 0)
+					.addTables(1, fields);
+
+			writeMessage(HEADER_SCHEMA, schema, 0);
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+	}
+
+
+	private static FlatTable createField(Vector vector) {
+		FlatTable type;
+		byte typeType;
+		switch (vector.getType()) {
+		case INT32:
+			typeType = TYPE_INT;
+			type = new FlatTable(2).addInt(0, 32).addByte(1, (byte) 1);
+			break;
+
+		case FLOAT64:
+			typeType = TYPE_FLOATINGPOINT;
+			type = new FlatTable(1).addShort(0, PRECISION_DOUBLE);
+			break;
+
+		case BOOL:
+			typeType = TYPE_BOOL;
+			type = new FlatTable(0);
+			break;
+
+		case UTF8:
+		default:
+			typeType = TYPE_UTF8;
+			type = new FlatTable(0);
+			break;
+		}
+
+		return new FlatTable(6)
+				.addString(0, vector.getName())
+				.addByte(1, (byte) 1)
+				.addByte(2, typeType)
+				.addTable(3, type)
+				.addTables(5, new ArrayList<FlatTable>());
+	}
+
+
+	/**
+	 * Writes the current values of all vectors as one record batch and
+	 * clears the vectors. All vectors must have the same number of values.
+	 *
+	 * @throws IOException
+	 */
+	public void writeBatch() throws IOException {
+		int length = vectors.get(0).size;
+
+		ByteBuffer nodes = ByteBuffer.allocate(16 * vectors.size()).order(ByteOrder.LITTLE_ENDIAN);
+		List<byte[]> bodyBuffers = new ArrayList<byte[]>();
+		for (Vector vector : vectors) {
+			if (vector.size != length) {
+				throw new IOException("The column " + vector.getName() + " has " + vector.size
+						+ " values, expected " + length);
+			}
+			nodes.putLong(vector.size);
+			nodes.putLong(vector.nullCount);
+			for (byte[] buffer : vector.getBuffers()) {
+				bodyBuffers.add(compress(buffer));
+			}
+		}
+
+		ByteBuffer buffers = ByteBuffer.allocate(16 * bodyBuffers.size()).order(ByteOrder.LITTLE_ENDIAN);
+		long bodyLength = 0;
+		for (byte[] buffer : bodyBuffers) {
+			buffers.putLong(bodyLength);
+			buffers.putLong(buffer.length);
+			bodyLength += padded(buffer.length);
+		}
+
+		FlatTable compression = new FlatTable(2)
+				.addByte(0, COMPRESSION_LZ4_FRAME)
+				.addByte(1, COMPRESSION_METHOD_BUFFER);
+
+		FlatTable recordBatch = new FlatTable(4)
+				.addLong(0, length)
+				.addStructs(1, nodes.array(), vectors.size())
+				.addStructs(2, buffers.array(), bodyBuffers.size())
+				.addTable(3, compression);
+
+		long offset = position;
+		int metadataLength = writeMessage(HEADER_RECORDBATCH, recordBatch, bodyLength);
+		for (byte[] buffer : bodyBuffers) {
+			write(buffer);
+			write(new byte[padded(buffer.length) - buffer.length]);
+		}
+
+		// the Block struct of the footer
+		ByteBuffer block = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+		block.putLong(offset);
+		block.putInt(metadataLength);
+		block.putInt(0);
+		block.putLong(bodyLength);
+		recordBatchBlocks.write(block.array());
+		recordBatchCount++;
+
+		for (Vector vector : vectors) {
+			vector.clear();
+		}
+	}
+
+
+	/**
+	 * Compresses a buffer of a record batch and prefixes it with the length
+	 * of the uncompressed buffer. Empty buffers stay empty.
+	 */
+	private byte[] compress(byte[] buffer) {
+		if (buffer.length == 0) {
+			return buffer;
+		}
+
+		byte[] compressed = compressor.compress(buffer);
+		long uncompressedLength = buffer.length;
+		if (compressed.length >= buffer.length) {
+			compressed = buffer;
+			uncompressedLength = UNCOMPRESSED_BUFFER;
+		}
+
+		return ByteBuffer.allocate(8 + compressed.length).order(ByteOrder.LITTLE_ENDIAN)
+				.putLong(uncompressedLength)
+				.put(compressed)
+				.array();
+	}
+
+
+	/**
+	 * Writes the end of the stream and the footer and closes the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			writeIntLE(CONTINUATION);
+			writeIntLE(0);
+
+			FlatTable footer = new FlatTable(4)
+					.addShort(0, METADATA_VERSION)
+					.addTable(1, schema)
+					.addStructs(3, recordBatchBlocks.toByteArray(), recordBatchCount);
+			byte[] footerBytes = footer.serialize();
+			write(footerBytes);
+			writeIntLE(footerBytes.length);
+			write(MAGIC);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Writes an encapsulated message, i.e. the continuation marker, the
+	 * length of the metadata and the padded flatbuffer.
+	 *
+	 * @return the number of written bytes
+	 */
+	private int writeMessage(byte headerType, FlatTable header, long bodyLength) throws IOException {
+		FlatTable message = new FlatTable(4)
+				.addShort(0, METADATA_VERSION)
+				.addByte(1, headerType)
+				.addTable(2, header)
+				.addLong(3, bodyLength);
+		byte[] metadata = message.serialize();
+		int paddedLength = padded(metadata.length);
+
+		writeIntLE(CONTINUATION);
+		writeIntLE(paddedLength);
+		write(metadata);
+		write(new byte[paddedLength - metadata.length]);
+		return 8 + paddedLength;
+	}
+
+
+	private static int padded(int length) {
+		return (length + 7) & ~7;
+	}
+
+
+	private void writeIntLE(int value) throws IOException {
+		write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array());
+	}
+
+
+	private void write(byte[] bytes) throws IOException {
+		out.write(bytes);
+		position += bytes.length;
+	}
+
+
+	/**
+	 * A flatbuffer table, which is serialized front to back: each table is
+	 * preceded by its vtable and followed by its children, so all offsets
+	 * point forward as required.
+	 */
+	private static class FlatTable {
+		private Object[] values;
+		private int[] sizes;
+
+		public FlatTable(int slots) {
+			this.values = new Object[slots];
+			this.sizes = new int[slots];
+		}
+
+		public FlatTable addByte(int slot, byte value) {
+			return addScalar(slot, 1, value);
+		}
+
+		public FlatTable addShort(int slot, short value) {
+			return addScalar(slot, 2, value);
+		}
+
+		public FlatTable addInt(int slot, int value) {
+			return addScalar(slot, 4, value);
+		}
+
+		public FlatTable addLong(int slot, long value) {
+			return addScalar(slot, 8, value);
+		}
+
+		private FlatTable addScalar(int slot, int size, long value) {
+			values[slot] = value;
+			sizes[slot] = size;
+			return this;
+		}
+
+		public FlatTable addString(int slot, String value) {
+			return addOffset(slot, value);
+		}
+
+		public FlatTable addTable(int slot, FlatTable value) {
+			return addOffset(slot, value);
+		}
+
+		public FlatTable addTables(int slot, List<FlatTable> value) {
+			return addOffset(slot, value);
+		}
+
+		/** adds a vector of 8 byte aligned structs */
+		public FlatTable addStructs(int slot, byte[] structs, int count) {
+			return addOffset(slot, new Object[]{structs, count});
+		}
+
+		private FlatTable addOffset(int slot, Object value) {
+			values[slot] = value;
+			sizes[slot] = 0;
+			return this;
+		}
+
+		/**
+		 * @return the flatbuffer with this table as root
+		 */
+		public byte[] serialize() throws IOException {
+			FlatBuffer buffer = new FlatBuffer();
+			buffer.putInt(0);
+			buffer.patchOffset(0, buffer.write(this));
+			return buffer.toByteArray();
+		}
+	}
+
+
+	/**
+	 * A growing little-endian buffer for serializing {@link FlatTable}s.
+	 */
+	private static class FlatBuffer {
+		private ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+		private void ensureCapacity(int bytes) {
+			if (buffer.remaining() < bytes) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+						.order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				grown.put(buffer);
+				buffer = grown;
+			}
+		}
+
+		private void align(int alignment) {
+			int padding = (alignment - (buffer.position() % alignment)) % alignment;
+			ensureCapacity(padding);
+			buffer.position(buffer.position() + padding);
+		}
+
+		private void putInt(int value) {
+			ensureCapacity(4);
+			buffer.putInt(value);
+		}
+
+		private void putScalar(int size, long value) {
+			ensureCapacity(size);
+			switch (size) {
+			case 1:
+				buffer.put((byte) value);
+				break;
+
+			case 2:
+				buffer.putShort((short) value);
+				break;
+
+			case 4:
+				buffer.putInt((int) value);
+				break;
+
+			default:
+				buffer.putLong(value);
+				break;
+			}
+		}
+
+		/** sets the uoffset at the given position to point to the target */
+		private void patchOffset(int position, int target) {
+			buffer.putInt(position, target - position);
+		}
+
+		/**
+		 * Writes the value and its children.
+		 *
+		 * @return the position referenced by offsets to the value
+		 */
+		@SuppressWarnings("unchecked")
+		private int write(Object value) throws IOException {
+			if (value instanceof FlatTable) {
+				return writeTable((FlatTable) value);
+			} else if (value instanceof String) {
+				byte[] bytes = ((String) value).getBytes("UTF-8");
+				align(4);
+				int start = buffer.position();
+				putInt(bytes.length);
+				ensureCapacity(bytes.length + 1);
+				buffer.put(bytes);
+				buffer.put((byte) 0);
+				return start;
+			} else if (value instanceof List) {
+				List<FlatTable> tables = (List<FlatTable>) value;
+				align(4);
+				int start = buffer.position();
+				putInt(tables.size());
+				for (int i = 0; i < tables.size(); i++) {
+					putInt(0);
+				}
+				for (int i = 0; i < tables.size(); i++) {
+					patchOffset(start + 4 + 4 * i, writeTable(tables.get(i)));
+				}
+				return start;
+			} else {
+				byte[] structs = (byte[]) ((Object[]) value)[0];
+				int count = (Integer) ((Object[]) value)[1];
+				// the structs after the length must be 8 byte aligned
+				align(8);
+				putInt(0);
+				putInt(count);
+				int start = buffer.position() - 4;
+				ensureCapacity(structs.length);
+				buffer.put(structs);
+				return start;
+			}
+		}
+
+		private int writeTable(FlatTable table) throws IOException {
+			int slots = table.values.length;
+
+			align(2);
+			int vtable = buffer.position();
+			putScalar(2, 4 + 2 * slots);
+			for (int i = 0; i <= slots; i++) {
+				putScalar(2, 0);
+			}
+
+			align(8);
+			int start = buffer.position();
+			putInt(start - vtable);
+
+			int[] offsetPositions = new int[slots];
+			for (int i = 0; i < slots; i++) {
+				if (table.values[i] == null) {
+					continue;
+				}
+				int size = (table.sizes[i] > 0) ? table.sizes[i] : 4;
+				align(size);
+				buffer.putShort(vtable + 4 + 2 * i, (short) (buffer.position() - start));
+				if (table.sizes[i] > 0) {
+					putScalar(size, ((Number) table.values[i]).longValue());
+				} else {
+					offsetPositions[i] = buffer.position();
+					putInt(0);
+				}
+			}
+			buffer.putShort(vtable + 2, (short) (buffer.position() - start));
+
+			for (int i = 0; i < slots; i++) {
+				if ((table.values[i] != null) && (table.sizes[i] == 0)) {
+					patchOffset(offsetPositions[i], write(table.values[i]));
+				}
+			}
+
+			return start;
+		}
+
+		private byte[] toByteArray() {
+			return Arrays.copyOf(buffer.array(), buffer.position());
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.IOException;
+
+
+/**
+ * The backend actually executing xinteract and ProteinProphet for a
+ * {@link ProteinProphetRunnable}. A backend instance is used for one run
+ * only.
+ *
+ * @author julianu
+ */
+public interface ExecutionBackend {
+
+	/**
+	 * Runs the inference with the settings of the given job. The output is
+	 * added to the job's output lists, the created files and the resource
+	 * usage are set into the job.
+	 *
+	 * @param job
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	void execute(ProteinProphetRunnable job) throws IOException, InterruptedException;
+
+
+	/**
+	 * Stops the running execution as fast as possible. This is called by
+	 * {@link ProteinProphetRunnable#abort(String)}, after the job is marked
+	 * as aborted.
+	 */
+	void abort();
+}
@@ -0,0 +1,419 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.knime.core.node.InvalidSettingsException;
+
+
+/**
+ * Assembles the FASTA database for the inference: all given FASTA files are
+ * merged in one streaming pass, entries with duplicate accessions are
+ * removed and optionally decoys are generated.<p>
+ * The assembled database is cached by the hash of the input contents and
+ * settings, so identical combinations are only built once. Cached databases,
+ * which were not used for {@link #MAX_CACHE_AGE} days, are removed and the
+ * least recently used ones are removed, while the cache is larger than
+ * {@link #MAX_CACHE_SIZE} bytes.
+ *
+ * @author julianu
+ */
+public class FastaAssembler {
+
+	/** no decoys are generated, they need to be in the input already */
+	public static final String DECOYS_NONE = "none";
+
+	/** decoys are generated by reversing the target sequences */
+	public static final String DECOYS_REVERSED = "reversed";
+
+	/** decoys are generated by shuffling the target sequences */
+	public static final String DECOYS_SHUFFLED = "shuffled";
+
+	/** all allowed decoy generation modes */
+	public static final String[] DECOY_MODES = {DECOYS_NONE, DECOYS_REVERSED, DECOYS_SHUFFLED};
+
+
+	/** bump this, if the output of the assembly changes, to invalidate old cache entries */
+	private static final String CACHE_VERSION = "1";
+
+	/** the line length of generated sequences */
+	private static final int LINE_LENGTH = 60;
+
+	/** cached databases not used for this many days are removed */
+	public static final int MAX_CACHE_AGE = 30;
+
+	/** maximal size of the cache in bytes (10 GB) */
+	public static final long MAX_CACHE_SIZE = 10L * 1024 * 1024 * 1024;
+
+	/** the extension of the cached databases */
+	private static final String CACHE_EXTENSION = ".fasta";
+
+	/** the extension of files, while they are built */
+	private static final String TMP_EXTENSION = ".fasta.tmp";
+
+	/** only one database is built at a time, to not build the same one twice */
+	private static final Object CACHE_LOCK = new Object();
+
+
+	/** the input FASTA files */
+	private List<String> fastaFiles;
+
+	/** how decoys are generated */
+	private String decoyMode;
+
+	/** the prefix of the decoy accessions */
+	private String decoyPrefix;
+
+	/** the directory of the cached databases */
+	private File cacheDirectory;
+
+
+	public FastaAssembler(List<String> fastaFiles, String decoyMode, String decoyPrefix) {
+		this(fastaFiles, decoyMode, decoyPrefix,
+				new File(System.getProperty("java.io.tmpdir") + File.separator + "PPfastacache"));
+	}
+
+
+	public FastaAssembler(List<String> fastaFiles, String decoyMode, String decoyPrefix, File cacheDirectory) {
+		this.fastaFiles = fastaFiles;
+		this.decoyMode = decoyMode;
+		this.decoyPrefix = decoyPrefix;
+		this.cacheDirectory = cacheDirectory;
+	}
+
+
+	/**
+	 * Checks whether decoys can be generated with the given settings.
+	 *
+	 * @param decoyMode
+	 * @param decoyPrefix
+	 * @throws InvalidSettingsException if decoys should be generated without a prefix
+	 */
+	public static void checkSettings(String decoyMode, String decoyPrefix) throws InvalidSettingsException {
+		if (!DECOYS_NONE.equals(decoyMode) && ((decoyPrefix == null) || decoyPrefix.trim().isEmpty())) {
+			// every header would count as decoy already and no decoys were generated
+			throw new InvalidSettingsException("A decoy prefix is needed to generate decoys.");
+		}
+	}
+
+
+	/**
+	 * Returns the path to the assembled database, which is built, if it is
+	 * not yet in the cache. A single FASTA file without decoy generation is
+	 * used as it is.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public String assemble() throws IOException {
+		if (fastaFiles.isEmpty()) {
+			throw new IOException("No FASTA file given.");
+		}
+
+		try {
+			checkSettings(decoyMode, decoyPrefix);
+		} catch (InvalidSettingsException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+
+		if ((fastaFiles.size() == 1) && DECOYS_NONE.equals(decoyMode)) {
+			return fastaFiles.get(0);
+		}
+
+		synchronized (CACHE_LOCK) {
+			cacheDirectory.mkdirs();
+			File cached = new File(cacheDirectory, computeHash() + CACHE_EXTENSION);
+			if (cached.exists()) {
+				ProteinProphetNodeModel.logger.info("using cached FASTA database " + cached.getAbsolutePath());
+				// the modification time marks the last usage for the cleanup
+				cached.setLastModified(System.currentTimeMillis());
+				cleanCache(cached);
+				return cached.getAbsolutePath();
+			}
+
+			File tmpFile = File.createTempFile("assembly", TMP_EXTENSION, cacheDirectory);
+			try {
+				build(tmpFile);
+				if (!tmpFile.renameTo(cached)) {
+					throw new IOException("Could not move the assembled FASTA database to " + cached.getAbsolutePath());
+				}
+			} finally {
+				tmpFile.delete();
+			}
+
+			ProteinProphetNodeModel.logger.info("assembled FASTA database " + cached.getAbsolutePath());
+			cleanCache(cached);
+			return cached.getAbsolutePath();
+		}
+	}
+
+
+	/**
+	 * Removes the cached databases, which were not used for
+	 * {@link #MAX_CACHE_AGE} days, and afterwards the least recently used
+	 * ones, until the cache is smaller than {@link #MAX_CACHE_SIZE}. Left
+	 * over temporary files of aborted builds are removed after a day.
+	 *
+	 * @param current the database in use, which is never removed
+	 */
+	private void cleanCache(File current) {
+		File[] files = cacheDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		long maxAge = MAX_CACHE_AGE * 24L * 60 * 60 * 1000;
+		long cacheSize = 0;
+
+		// the most recently used first
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o2.lastModified(), o1.lastModified());
+			}
+		});
+
+		for (File file : files) {
+			long age = now - file.lastModified();
+			if (file.getName().endsWith(TMP_EXTENSION)) {
+				if ((age > 24L * 60 * 60 * 1000) && file.delete()) {
+					ProteinProphetNodeModel.logger.debug("removed left over file " + file.getAbsolutePath());
+				}
+			} else if (file.getName().endsWith(CACHE_EXTENSION) && !file.equals(current)) {
+				if (((age > maxAge) || (cacheSize + file.length() > MAX_CACHE_SIZE)) && file.delete()) {
+					ProteinProphetNodeModel.logger.info("removed cached FASTA database " + file.getAbsolutePath());
+				} else {
+					cacheSize += file.length();
+				}
+			} else if (file.equals(current)) {
+				cacheSize += file.length();
+			}
+		}
+	}
+
+
+	/**
+	 * Computes the SHA-256 of the settings and the contents of all input
+	 * files, in the given order.
+	 *
+	 * @return the hash as hex string
+	 * @throws IOException
+	 */
+	private String computeHash() throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
+		}
+
+		digest.update((CACHE_VERSION + "\n" + decoyMode + "\n" + decoyPrefix + "\n").getBytes("UTF-8"));
+
+		byte[] buffer = new byte[65536];
+		for (String fastaFile : fastaFiles) {
+			InputStream is = new FileInputStream(fastaFile);
+			try {
+				int read;
+				while ((read = is.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			} finally {
+				is.close();
+			}
+			// separate the files, so moving content between them changes the hash
+			digest.update((byte) 0);
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+
+	/**
+	 * Merges the input files into the given file. Generated decoys are
+	 * written into a side file first and appended after all targets.
+	 *
+	 * @param outFile
+	 * @throws IOException
+	 */
+	private void build(File outFile) throws IOException {
+		boolean generateDecoys = !DECOYS_NONE.equals(decoyMode);
+		Set<String> accessions = new HashSet<String>();
+
+		File decoyFile = null;
+		BufferedWriter decoyWriter = null;
+		if (generateDecoys) {
+			decoyFile = File.createTempFile("decoys", ".fasta.tmp", outFile.getParentFile());
+			decoyWriter = new BufferedWriter(new FileWriter(decoyFile));
+		}
+
+		BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
+		try {
+			for (String fastaFile : fastaFiles) {
+				BufferedReader br = new BufferedReader(new FileReader(fastaFile));
+				try {
+					String header = null;
+					boolean skip = false;
+					StringBuilder sequence = new StringBuilder();
+
+					String line;
+					while ((line = br.readLine()) != null) {
+						if (line.startsWith(">")) {
+							if ((header != null) && !skip && generateDecoys) {
+								writeDecoy(decoyWriter, header, sequence);
+							}
+
+							header = line.substring(1);
+							skip = !accessions.add(getAccession(header));
+							sequence.setLength(0);
+
+							if (skip) {
+								ProteinProphetNodeModel.logger.debug("skipping duplicate accession " + getAccession(header));
+							}
+						} else if (header == null) {
+							// text before the first entry
+							continue;
+						} else if (generateDecoys && !skip) {
+							sequence.append(line.trim());
+						}
+
+						if (!skip) {
+							bw.append(line);
+							bw.append("\n");
+						}
+					}
+
+					if ((header != null) && !skip && generateDecoys) {
+						writeDecoy(decoyWriter, header, sequence);
+					}
+				} finally {
+					br.close();
+				}
+			}
+
+			if (generateDecoys) {
+				decoyWriter.close();
+				decoyWriter = null;
+				appendDecoys(bw, decoyFile, accessions);
+			}
+		} finally {
+			bw.close();
+			if (decoyWriter != null) {
+				decoyWriter.close();
+			}
+			if (decoyFile != null) {
+				decoyFile.delete();
+			}
+		}
+	}
+
+
+	/**
+	 * Writes the decoy of the given target entry. Entries, which are decoys
+	 * already, are not used.
+	 *
+	 * @param writer
+	 * @param header the target's header without the leading '&gt;'
+	 * @param sequence
+	 * @throws IOException
+	 */
+	private void writeDecoy(BufferedWriter writer, String header, CharSequence sequence)
+			throws IOException {
+		if (header.startsWith(decoyPrefix)) {
+			return;
+		}
+
+		char[] decoySequence = sequence.toString().toCharArray();
+		if (DECOYS_REVERSED.equals(decoyMode)) {
+			for (int i = 0, j = decoySequence.length - 1; i < j; i++, j--) {
+				char tmp = decoySequence[i];
+				decoySequence[i] = decoySequence[j];
+				decoySequence[j] = tmp;
+			}
+		} else {
+			// seeded by the accession, so the same database is generated every time
+			Random random = new Random(getAccession(header).hashCode());
+			for (int i = decoySequence.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				char tmp = decoySequence[i];
+				decoySequence[i] = decoySequence[j];
+				decoySequence[j] = tmp;
+			}
+		}
+
+		writer.append('>');
+		writer.append(decoyPrefix);
+		writer.append(header);
+		writer.append("\n");
+		for (int pos = 0; pos < decoySequence.length; pos += LINE_LENGTH) {
+			writer.write(decoySequence, pos, Math.min(LINE_LENGTH, decoySequence.length - pos));
+			writer.append("\n");
+		}
+	}
+
+
+	/**
+	 * Appends the generated decoys, skipping those whose accession is already
+	 * given in the input files.
+	 *
+	 * @param bw
+	 * @param decoyFile
+	 * @param accessions
+	 * @throws IOException
+	 */
+	private static void appendDecoys(BufferedWriter bw, File decoyFile, Set<String> accessions)
+			throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(decoyFile));
+		try {
+			boolean skip = false;
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith(">")) {
+					skip = accessions.contains(getAccession(line.substring(1)));
+				}
+
+				if (!skip) {
+					bw.append(line);
+					bw.append("\n");
+				}
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+
+	/**
+	 * The accession is the header up to the first whitespace.
+	 *
+	 * @param header the header without the leading '&gt;'
+	 * @return
+	 */
+	private static String getAccession(String header) {
+		String trimmed = header.trim();
+		for (int i = 0; i < trimmed.length(); i++) {
+			if (Character.isWhitespace(trimmed.charAt(i))) {
+				return trimmed.substring(0, i);
+			}
+		}
+		return trimmed;
+	}
+}
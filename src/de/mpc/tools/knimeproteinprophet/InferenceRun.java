@@ -0,0 +1,312 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ * A single inference of a ProteinProphet node, run by the
+ * {@link ParallelRunner}: optionally the check of the pepXML files, followed
+ * by xinteract and ProteinProphet and the columnar export of the protXML.
+ *
+ * @author julianu
+ */
+public class InferenceRun implements ParallelRunner.Task {
+
+	/** the name of the run, e.g. the sample group */
+	private String name;
+
+	/** the shared settings of the node */
+	private ProteinProphetSettings settings;
+
+	/** the pepXML files */
+	private List<String> inputFiles;
+
+	/** the FASTA database */
+	private String fastaFile;
+
+	/** the minimal peptide probability */
+	private Double probability;
+
+	/** whether iProphet is used */
+	private Boolean iProphet;
+
+	/** the working directory of this run */
+	private File dir;
+
+	/** whether the pepXML files are checked before the inference */
+	private boolean checkInputFiles;
+
+	/** whether xinteract is run */
+	private boolean runXinteract;
+
+	/** whether ProteinProphet is run */
+	private boolean runProteinProphet;
+
+	/** the name of the ProteinProphet result files */
+	private String resultName;
+
+	/** summed up size of the input files, used for the scheduling */
+	private long inputSize;
+
+	/** the statistics of the checked pepXML files */
+	private List<PSMStatistics> statistics;
+
+	/** the STD output */
+	private List<String> output;
+
+	/** the STDERR output */
+	private List<String> errorOutput;
+
+	/** the ProteinProphet run, once it is started */
+	private ProteinProphetRunnable pprunner;
+
+	/** the reason, why the run was aborted or failed */
+	private volatile String errorMessage;
+
+	/** the final protXML file */
+	private String protXMLFile;
+
+	/** the final tab separated file */
+	private String excelFile;
+
+	/** the columnar export of the protXML */
+	private String columnarFile;
+
+	/** highest memory usage of the run in kB */
+	private long peakRSS;
+
+
+	public InferenceRun(String name, ProteinProphetSettings settings, List<String> inputFiles, String fastaFile,
+			Double probability, Boolean iProphet, File dir) {
+		this.name = name;
+		this.settings = settings;
+		this.inputFiles = new ArrayList<String>(inputFiles);
+		this.fastaFile = fastaFile;
+		this.probability = probability;
+		this.iProphet = iProphet;
+		this.dir = dir;
+		this.checkInputFiles = false;
+		this.runXinteract = true;
+		this.runProteinProphet = true;
+		this.resultName = ProteinProphetRunnable.DEFAULT_RESULT_NAME;
+		this.statistics = new ArrayList<PSMStatistics>(inputFiles.size());
+		this.output = Collections.synchronizedList(new LinkedList<String>());
+		this.errorOutput = Collections.synchronizedList(new LinkedList<String>());
+		this.pprunner = null;
+		this.errorMessage = null;
+		this.protXMLFile = null;
+		this.excelFile = null;
+		this.columnarFile = null;
+		this.peakRSS = 0;
+
+		inputSize = 0;
+		for (String file : inputFiles) {
+			inputSize += new File(file).length();
+		}
+	}
+
+
+	/**
+	 * Sets, whether the pepXML files are checked and corrected by the run
+	 * before the inference, by default they are not.
+	 *
+	 * @param checkInputFiles
+	 */
+	public void setCheckInputFiles(boolean checkInputFiles) {
+		this.checkInputFiles = checkInputFiles;
+	}
+
+
+	/**
+	 * Sets, which of the tools are run, see
+	 * {@link ProteinProphetRunnable#setSteps(boolean, boolean)}.
+	 *
+	 * @param runXinteract
+	 * @param runProteinProphet
+	 */
+	public void setSteps(boolean runXinteract, boolean runProteinProphet) {
+		this.runXinteract = runXinteract;
+		this.runProteinProphet = runProteinProphet;
+	}
+
+
+	/**
+	 * Sets the name of the ProteinProphet result files (without extension).
+	 *
+	 * @param resultName
+	 */
+	public void setResultName(String resultName) {
+		this.resultName = resultName;
+	}
+
+
+	@Override
+	public void run() {
+		synchronized (this) {
+			if (errorMessage != null) {
+				return;
+			}
+		}
+
+		if (checkInputFiles) {
+			try {
+				for (int i = 0; i < inputFiles.size(); i++) {
+					statistics.add(settings.checkInputFile(inputFiles, i, dir));
+				}
+			} catch (IOException e) {
+				ProteinProphetNodeModel.logger.error("Error while preprocessing the files of " + name, e);
+				errorOutput.add(e.getMessage());
+				abort("Error while preprocessing the files: " + e.getMessage());
+				return;
+			}
+		}
+
+		synchronized (this) {
+			if (errorMessage != null) {
+				return;
+			}
+			pprunner = settings.createRunner(inputFiles, fastaFile, probability, iProphet, dir,
+					output, errorOutput);
+			pprunner.setSteps(runXinteract, runProteinProphet);
+			pprunner.setResultName(resultName);
+		}
+		pprunner.run();
+
+		peakRSS = pprunner.getPeakRSS();
+		if (pprunner.getErrorMessage() != null) {
+			errorMessage = pprunner.getErrorMessage();
+		}
+
+		String protXML = pprunner.getProtXMLFile();
+		if ((protXML != null) && Files.exists(new File(protXML).toPath(), new LinkOption[]{})) {
+			try {
+				columnarFile = new ProtXMLColumnarExporter(protXML).export().getAbsolutePath();
+			} catch (IOException e) {
+				ProteinProphetNodeModel.logger.error("Error while exporting the results of " + name, e);
+				errorMessage = "Error while exporting the columnar file: " + e.getMessage();
+				return;
+			}
+
+			protXMLFile = protXML;
+			excelFile = pprunner.getExcelFile();
+		}
+	}
+
+
+	@Override
+	public synchronized void abort(String message) {
+		if (errorMessage == null) {
+			errorMessage = message;
+		}
+		if (pprunner != null) {
+			pprunner.abort(message);
+		}
+	}
+
+
+	/**
+	 * returns whether the run finished without error and created its results
+	 * @return
+	 */
+	public boolean isSuccessful() {
+		if (errorMessage != null) {
+			return false;
+		}
+		return !runProteinProphet || (protXMLFile != null);
+	}
+
+
+	/**
+	 * returns the name of the run, followed by the error message if there is one
+	 * @return
+	 */
+	public String getFailureDescription() {
+		if (errorMessage != null) {
+			return name + " (" + errorMessage + ")";
+		}
+		return name;
+	}
+
+
+	/**
+	 * Appends the output and error output of the run, each headed by the name
+	 * of the run, to the given outputs of the node.
+	 *
+	 * @param nodeOutput
+	 * @param nodeErrorOutput
+	 */
+	public void appendOutputs(List<String> nodeOutput, List<String> nodeErrorOutput) {
+		nodeOutput.add("### " + name);
+		nodeOutput.addAll(output);
+		nodeErrorOutput.add("### " + name);
+		nodeErrorOutput.addAll(errorOutput);
+	}
+
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+
+	public Double getPeptideProbability() {
+		return probability;
+	}
+
+
+	public Boolean getUseIProphet() {
+		return iProphet;
+	}
+
+
+	public long getInputSize() {
+		return inputSize;
+	}
+
+
+	public List<PSMStatistics> getStatistics() {
+		return statistics;
+	}
+
+
+	public List<String> getOutput() {
+		return output;
+	}
+
+
+	public List<String> getErrorOutput() {
+		return errorOutput;
+	}
+
+
+	public String getProtXMLFile() {
+		return protXMLFile;
+	}
+
+
+	public String getExcelFile() {
+		return excelFile;
+	}
+
+
+	public String getColumnarFile() {
+		return columnarFile;
+	}
+
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+
+	public long getPeakRSS() {
+		return peakRSS;
+	}
+}
@@ -0,0 +1,180 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+
+/**
+ * Compresses data into the LZ4 frame format, as used by the LZ4_FRAME body
+ * compression of Apache Arrow. The blocks are compressed independently by a
+ * simple greedy matcher, which is fast and good enough for the repetitive
+ * columns of the exports. A block, which does not get smaller, is stored
+ * uncompressed.
+ *
+ * @author julianu
+ */
+public class LZ4FrameCompressor {
+
+	/** the magic number and frame descriptor: version 1, independent blocks
+	 * of at most 64 KB, no checksums, followed by the header checksum (the
+	 * second byte of the xxHash32 of the descriptor) */
+	private static final byte[] FRAME_HEADER = {0x04, 0x22, 0x4D, 0x18, 0x60, 0x40, (byte) 0x82};
+
+	/** the maximal size of a block */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	/** the flag of the block size for uncompressed blocks */
+	private static final int UNCOMPRESSED_BLOCK = 0x80000000;
+
+	/** the minimal length of a match */
+	private static final int MIN_MATCH = 4;
+
+	/** the last bytes of a block are always literals */
+	private static final int LAST_LITERALS = 5;
+
+	/** the last match must start this many bytes before the end of a block */
+	private static final int MATCH_FIND_LIMIT = 12;
+
+	/** the maximal distance of a match */
+	private static final int MAX_DISTANCE = 65535;
+
+	private static final int HASH_BITS = 14;
+
+
+	/** the last positions of the hashed 4 byte sequences in the current block */
+	private int[] hashTable;
+
+	/** the compressed block */
+	private byte[] block;
+
+
+	public LZ4FrameCompressor() {
+		hashTable = new int[1 << HASH_BITS];
+		// the worst case of incompressible data
+		block = new byte[BLOCK_SIZE + BLOCK_SIZE / 255 + 16];
+	}
+
+
+	/**
+	 * Compresses the data into a complete LZ4 frame.
+	 *
+	 * @param data
+	 * @return
+	 */
+	public byte[] compress(byte[] data) {
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(data.length / 2 + 64);
+		frame.write(FRAME_HEADER, 0, FRAME_HEADER.length);
+
+		for (int start = 0; start < data.length; start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, data.length - start);
+			int compressedLength = compressBlock(data, start, length);
+
+			if (compressedLength < length) {
+				writeIntLE(frame, compressedLength);
+				frame.write(block, 0, compressedLength);
+			} else {
+				writeIntLE(frame, length | UNCOMPRESSED_BLOCK);
+				frame.write(data, start, length);
+			}
+		}
+
+		// the end mark
+		writeIntLE(frame, 0);
+		return frame.toByteArray();
+	}
+
+
+	/**
+	 * Compresses a block into {@link #block}.
+	 *
+	 * @return the length of the compressed block
+	 */
+	private int compressBlock(byte[] src, int start, int length) {
+		int end = start + length;
+		int matchFindLimit = end - MATCH_FIND_LIMIT;
+		int matchEndLimit = end - LAST_LITERALS;
+
+		Arrays.fill(hashTable, -1);
+		int anchor = start;
+		int pos = start;
+		int out = 0;
+
+		while (pos < matchFindLimit) {
+			int sequence = readInt(src, pos);
+			int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+			int ref = hashTable[hash];
+			hashTable[hash] = pos;
+
+			if ((ref < 0) || (pos - ref > MAX_DISTANCE) || (readInt(src, ref) != sequence)) {
+				pos++;
+				continue;
+			}
+
+			int matchLength = MIN_MATCH;
+			while ((pos + matchLength < matchEndLimit) && (src[ref + matchLength] == src[pos + matchLength])) {
+				matchLength++;
+			}
+
+			out = writeSequence(src, anchor, pos - anchor, pos - ref, matchLength, out);
+			pos += matchLength;
+			anchor = pos;
+		}
+
+		return writeSequence(src, anchor, end - anchor, 0, 0, out);
+	}
+
+
+	/**
+	 * Writes a sequence of literals followed by a match, the last sequence of
+	 * a block has no match.
+	 *
+	 * @return the position after the sequence
+	 */
+	private int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+			int out) {
+		int token = out++;
+		int matchToken = (matchLength > 0) ? matchLength - MIN_MATCH : 0;
+		block[token] = (byte) ((Math.min(literalLength, 15) << 4) | Math.min(matchToken, 15));
+
+		out = writeLength(literalLength - 15, out);
+		System.arraycopy(src, literalStart, block, out, literalLength);
+		out += literalLength;
+
+		if (matchLength > 0) {
+			block[out++] = (byte) offset;
+			block[out++] = (byte) (offset >>> 8);
+			out = writeLength(matchToken - 15, out);
+		}
+		return out;
+	}
+
+
+	/**
+	 * Writes the remainder of a length, which did not fit into the token.
+	 */
+	private int writeLength(int remainder, int out) {
+		if (remainder < 0) {
+			return out;
+		}
+		while (remainder >= 255) {
+			block[out++] = (byte) 255;
+			remainder -= 255;
+		}
+		block[out++] = (byte) remainder;
+		return out;
+	}
+
+
+	private static int readInt(byte[] bytes, int pos) {
+		return (bytes[pos] & 0xFF) | ((bytes[pos + 1] & 0xFF) << 8)
+				| ((bytes[pos + 2] & 0xFF) << 16) | ((bytes[pos + 3] & 0xFF) << 24);
+	}
+
+
+	private static void writeIntLE(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+}
@@ -0,0 +1,264 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Executes xinteract and ProteinProphet as local processes, applying the
+ * resource limits of the job and watching the memory and output of the
+ * processes.
+ *
+ * @author julianu
+ */
+public class LocalExecutionBackend implements ExecutionBackend {
+	
+	/** the shell used to apply the resource limits */
+	private static final String SHELL = "/bin/sh";
+	
+	/** the signal sent when exceeding the CPU time limit */
+	private static final int SIGXCPU = 24;
+	
+	/** the signal sent when exceeding the hard CPU time limit */
+	private static final int SIGKILL = 9;
+	
+	/** the data size rlimit relative to the RSS limit */
+	private static final int DATA_LIMIT_FACTOR = 2;
+	
+	/** the logger, forwarded to the KNIME log inside the plugin */
+	private static final Logger logger = Logger.getLogger(LocalExecutionBackend.class.getName());
+	
+	
+	/** the executed job */
+	private ProteinProphetRunnable job;
+	
+	/** the watchdog of the currently running process */
+	private ResourceWatchdog runningWatchdog = null;
+	
+	
+	@Override
+	public void execute(ProteinProphetRunnable job) throws IOException, InterruptedException {
+		this.job = job;
+		String executionDirectory = job.getExecutionDirectory();
+		
+		String xinteractOutput = executionDirectory + File.separator + ProteinProphetRunnable.XINTERACT_OUTPUT;
+		ProcessBuilder processB;
+		
+		if (job.getRunXinteract()) {
+			processB = new ProcessBuilder(
+					job.getExecXinteract(),
+					"-D" + job.getFastaFile(),
+					"-e" + job.getEnzyme(),
+					"-nP",
+					"-Ot",
+					"-d" + job.getDecoyPrefix(),
+					"-THREADS=" + job.getThreads());
+			
+			if (job.getUseIProphet()) {
+				processB.command().add("-i");
+			}
+			
+			processB.command().add("-N" + xinteractOutput);
+			
+			processB.command().addAll(job.getPepXMLFiles());
+			
+			if (!runProcess(processB, "xinteract")) {
+				return;
+			}
+		}
+		
+		if (!job.getRunProteinProphet()) {
+			return;
+		}
+		
+		String resultBase = executionDirectory + File.separator + job.getResultName();
+		processB = new ProcessBuilder(
+				job.getExecProteinProphet(),
+				xinteractOutput,
+				resultBase + ".protXML");
+		
+		if (job.getUseIProphet()) {
+			processB.command().add("IPROPHET");
+		}
+
+		processB.command().add("MINPROB" + job.getPeptideProbability());
+		processB.command().add("NOPLOT");
+		processB.command().add("EXCELPEPS");
+		
+		if (!runProcess(processB, "ProteinProphet")) {
+			return;
+		}
+		
+		job.setResultFiles(resultBase + ".protXML", resultBase + ".xls");
+	}
+	
+	
+	/**
+	 * Starts the process with the resource limits, reads its output and waits
+	 * for it to finish.
+	 * 
+	 * @param processB
+	 * @param toolName
+	 * @return false, if the run was aborted or the process hit the CPU limit
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private boolean runProcess(ProcessBuilder processB, String toolName)
+			throws IOException, InterruptedException {
+		applyResourceLimits(processB);
+		
+		Process runningProcess;
+		synchronized (this) {
+			if (job.isAborted()) {
+				return false;
+			}
+			runningProcess = processB.start();
+			runningWatchdog = new ResourceWatchdog(runningProcess, job, toolName, job.getMemoryLimit() * 1024L);
+		}
+		
+		Thread watchdogThread = new Thread(runningWatchdog, toolName + " watchdog");
+		watchdogThread.setDaemon(true);
+		watchdogThread.start();
+		
+		ToolOutputWatchdog outputWatchdog = new ToolOutputWatchdog(toolName);
+		BufferedReader stdOut = new BufferedReader(new InputStreamReader(runningProcess.getInputStream()));
+		BufferedReader stdError = new BufferedReader(new InputStreamReader(runningProcess.getErrorStream()));
+		
+		// both streams are read at the same time, so fatal messages are seen as soon as they are printed
+		Thread errorReaderThread = new Thread(
+				new OutputReader(stdError, job.getErrorOutput(), outputWatchdog, true), toolName + " STDERR reader");
+		errorReaderThread.setDaemon(true);
+		errorReaderThread.start();
+		
+		int exitValue;
+		try {
+			new OutputReader(stdOut, job.getOutput(), outputWatchdog, false).run();
+			exitValue = runningProcess.waitFor();
+		} finally {
+			errorReaderThread.join();
+			runningWatchdog.stop();
+			watchdogThread.join();
+			job.updatePeakRSS(runningWatchdog.getPeakRSS());
+			
+			synchronized (this) {
+				runningWatchdog = null;
+			}
+		}
+		
+		int cpuTimeLimit = job.getCpuTimeLimit();
+		if ((cpuTimeLimit > 0) && !job.isAborted()
+				&& ((exitValue == 128 + SIGXCPU) || (exitValue == 128 + SIGKILL))) {
+			// depending on the kernel, reaching the limit sends SIGXCPU or directly SIGKILL
+			job.abort(toolName + " was killed, most probably by exceeding the CPU time limit of "
+					+ cpuTimeLimit + " seconds. The run was aborted.");
+		}
+		
+		return !job.isAborted();
+	}
+	
+	
+	/**
+	 * Reads the lines of one output stream of a process into a list and aborts
+	 * the run, if a line reports a fatal condition.
+	 */
+	private class OutputReader implements Runnable {
+		
+		private BufferedReader reader;
+		
+		private List<String> lines;
+		
+		private ToolOutputWatchdog outputWatchdog;
+		
+		private boolean errorStream;
+		
+		
+		public OutputReader(BufferedReader reader, List<String> lines, ToolOutputWatchdog outputWatchdog,
+				boolean errorStream) {
+			this.reader = reader;
+			this.lines = lines;
+			this.outputWatchdog = outputWatchdog;
+			this.errorStream = errorStream;
+		}
+		
+		
+		@Override
+		public void run() {
+			try {
+				String s;
+				while ((s = reader.readLine()) != null) {
+					lines.add(s);
+					
+					String fatalMessage = outputWatchdog.check(s, errorStream);
+					if (fatalMessage != null) {
+						job.abort(fatalMessage);
+					}
+				}
+			} catch (IOException e) {
+				// the streams are closed, when the process is killed
+				if (!job.isAborted()) {
+					logger.log(Level.SEVERE, "Error while reading the output", e);
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Wraps the command of the process builder into a shell call setting the
+	 * CPU time and data size rlimits and the nice level, if any is given and
+	 * a POSIX shell is available.<p>
+	 * The data size limit is only a backstop against allocation spikes
+	 * between two samples of the {@link ResourceWatchdog}. As the data
+	 * segment also counts allocated but untouched memory, it is set to
+	 * {@link #DATA_LIMIT_FACTOR} times the RSS limit.
+	 * 
+	 * @param processB
+	 */
+	private void applyResourceLimits(ProcessBuilder processB) {
+		int niceLevel = job.getNiceLevel();
+		int cpuTimeLimit = job.getCpuTimeLimit();
+		int memoryLimit = job.getMemoryLimit();
+		if (((niceLevel <= 0) && (cpuTimeLimit <= 0) && (memoryLimit <= 0)) || !new File(SHELL).canExecute()) {
+			return;
+		}
+		
+		StringBuilder script = new StringBuilder();
+		if (cpuTimeLimit > 0) {
+			script.append("ulimit -t ").append(cpuTimeLimit).append("; ");
+		}
+		if (memoryLimit > 0) {
+			// given in kB
+			script.append("ulimit -d ").append(memoryLimit * 1024L * DATA_LIMIT_FACTOR).append("; ");
+		}
+		script.append("exec ");
+		if (niceLevel > 0) {
+			script.append("nice -n ").append(niceLevel).append(' ');
+		}
+		// the command and its arguments are passed as positional parameters to avoid quoting issues
+		script.append("\"$0\" \"$@\"");
+		
+		List<String> command = new ArrayList<String>(processB.command().size() + 3);
+		command.add(SHELL);
+		command.add("-c");
+		command.add(script.toString());
+		command.addAll(processB.command());
+		processB.command(command);
+	}
+	
+	
+	/**
+	 * Kills the currently running process and its children.
+	 */
+	@Override
+	public synchronized void abort() {
+		if (runningWatchdog != null) {
+			runningWatchdog.kill();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+import org.knime.core.node.NodeLogger;
+
+
+/**
+ * Forwards the records of the java.util.logging loggers of the execution
+ * classes to the KNIME log. The execution classes do not use the
+ * {@link NodeLogger} directly, as they are also used by the standalone
+ * worker, which runs without KNIME.
+ *
+ * @author julianu
+ */
+public class NodeLoggerHandler extends Handler {
+
+	/** the KNIME logger receiving the records */
+	private NodeLogger nodeLogger;
+
+	/** formats the message with its parameters */
+	private Formatter formatter;
+
+
+	public NodeLoggerHandler(NodeLogger nodeLogger) {
+		this.nodeLogger = nodeLogger;
+		this.formatter = new SimpleFormatter();
+	}
+
+
+	@Override
+	public void publish(LogRecord record) {
+		if (!isLoggable(record)) {
+			return;
+		}
+
+		String message = formatter.formatMessage(record);
+		Throwable thrown = record.getThrown();
+		int level = record.getLevel().intValue();
+
+		if (level >= Level.SEVERE.intValue()) {
+			nodeLogger.error(message, thrown);
+		} else if (level >= Level.WARNING.intValue()) {
+			nodeLogger.warn(message, thrown);
+		} else if (level >= Level.INFO.intValue()) {
+			nodeLogger.info(message, thrown);
+		} else {
+			nodeLogger.debug(message, thrown);
+		}
+	}
+
+
+	@Override
+	public void flush() {
+		// the NodeLogger writes the messages itself
+	}
+
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+}
@@ -0,0 +1,299 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.DataType;
+import org.knime.core.data.RowKey;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.IntCell;
+import org.knime.core.data.def.StringCell;
+import org.knime.core.node.streamable.RowOutput;
+
+
+/**
+ * Statistics of the PSMs (i.e. the top ranked hit of each spectrum query)
+ * in one pepXML file. The statistics are collected line by line while the
+ * file is checked, only counters and histograms are kept.
+ *
+ * @author julianu
+ */
+public class PSMStatistics {
+
+	/** number of bins of the probability histograms */
+	public static final int PROBABILITY_BINS = 20;
+
+
+	private static final Pattern RUN_PATTERN = Pattern.compile("<msms_run_summary .*base_name=\"([^\"]*)\"");
+	private static final Pattern CHARGE_PATTERN = Pattern.compile("<spectrum_query .*assumed_charge=\"(\\d+)\"");
+	private static final Pattern HITRANK_PATTERN = Pattern.compile("<search_hit .*hit_rank=\"(\\d+)\"");
+	private static final Pattern PROTEIN_PATTERN = Pattern.compile("<(?:search_hit|alternative_protein) .*protein=\"([^\"]*)\"");
+	private static final Pattern PROBABILITY_PATTERN = Pattern.compile("<peptideprophet_result .*probability=\"([^\"]*)\"");
+
+
+	/** the pepXML file */
+	private String fileName;
+
+	/** the prefix of decoy accessions */
+	private String decoyPrefix;
+
+	/** whether the probabilities are corrected from error probabilities */
+	private boolean correctProbabilities;
+
+	/** whether the enzyme tag needed to be added */
+	private boolean enzymeTagAdded;
+
+	/** target and decoy counts per run */
+	private Map<String, int[]> runCounts;
+
+	/** target counts per charge, indexed by the charge */
+	private int[] targetChargeCounts;
+
+	/** decoy counts per charge, indexed by the charge */
+	private int[] decoyChargeCounts;
+
+	/** the probability histogram of the targets */
+	private int[] targetHistogram;
+
+	/** the probability histogram of the decoys */
+	private int[] decoyHistogram;
+
+
+	/** the base name of the current run */
+	private String currentRun;
+
+	/** the charge of the current spectrum query */
+	private int currentCharge;
+
+	/** whether the parser is in the top ranked hit of a query */
+	private boolean inTopHit;
+
+	/** whether the current query has a top ranked hit */
+	private boolean hasTopHit;
+
+	/** whether the top ranked hit of the current query has only decoy proteins */
+	private boolean currentDecoy;
+
+	/** the probability of the top ranked hit, NaN if none is given */
+	private double currentProbability;
+
+
+	public PSMStatistics(String fileName, String decoyPrefix, boolean correctProbabilities) {
+		this.fileName = fileName;
+		this.decoyPrefix = decoyPrefix;
+		this.correctProbabilities = correctProbabilities;
+		this.enzymeTagAdded = false;
+		this.runCounts = new LinkedHashMap<String, int[]>();
+		this.targetChargeCounts = new int[8];
+		this.decoyChargeCounts = new int[8];
+		this.targetHistogram = new int[PROBABILITY_BINS];
+		this.decoyHistogram = new int[PROBABILITY_BINS];
+		this.currentRun = "";
+		this.currentCharge = 0;
+		this.inTopHit = false;
+		this.hasTopHit = false;
+	}
+
+
+	/**
+	 * Processes the next line of the pepXML file.
+	 *
+	 * @param line
+	 */
+	public void processLine(String line) {
+		if (line.indexOf('<') < 0) {
+			return;
+		}
+
+		if (line.contains("</spectrum_query>")) {
+			finishQuery();
+			return;
+		}
+
+		Matcher matcher;
+		if (line.contains("<msms_run_summary")) {
+			matcher = RUN_PATTERN.matcher(line);
+			currentRun = matcher.find() ? matcher.group(1) : "";
+		} else if (line.contains("<spectrum_query")) {
+			finishQuery();
+			matcher = CHARGE_PATTERN.matcher(line);
+			currentCharge = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+		} else if (line.contains("<search_hit")) {
+			matcher = HITRANK_PATTERN.matcher(line);
+			inTopHit = matcher.find() && "1".equals(matcher.group(1)) && !hasTopHit;
+			if (inTopHit) {
+				hasTopHit = true;
+				currentDecoy = true;
+				currentProbability = Double.NaN;
+				processProtein(line);
+			}
+		} else if (line.contains("</search_hit>")) {
+			inTopHit = false;
+		} else if (inTopHit) {
+			if (line.contains("<alternative_protein")) {
+				processProtein(line);
+			} else if (line.contains("<peptideprophet_result")) {
+				matcher = PROBABILITY_PATTERN.matcher(line);
+				if (matcher.find()) {
+					try {
+						currentProbability = Double.parseDouble(matcher.group(1));
+						if (correctProbabilities) {
+							currentProbability = 1.0 - currentProbability;
+						}
+					} catch (NumberFormatException e) {
+						currentProbability = Double.NaN;
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Finishes the processing, call this after the last line.
+	 */
+	public void finish() {
+		finishQuery();
+	}
+
+
+	/**
+	 * A hit is a decoy, if all its proteins are decoys.
+	 * @param line
+	 */
+	private void processProtein(String line) {
+		Matcher matcher = PROTEIN_PATTERN.matcher(line);
+		if (matcher.find() && !matcher.group(1).startsWith(decoyPrefix)) {
+			currentDecoy = false;
+		}
+	}
+
+
+	/**
+	 * Adds the top ranked hit of the current query to the counts.
+	 */
+	private void finishQuery() {
+		if (!hasTopHit) {
+			return;
+		}
+
+		int[] counts = runCounts.get(currentRun);
+		if (counts == null) {
+			counts = new int[2];
+			runCounts.put(currentRun, counts);
+		}
+		counts[currentDecoy ? 1 : 0]++;
+
+		if (currentCharge >= targetChargeCounts.length) {
+			targetChargeCounts = Arrays.copyOf(targetChargeCounts, currentCharge + 1);
+			decoyChargeCounts = Arrays.copyOf(decoyChargeCounts, currentCharge + 1);
+		}
+		if (currentDecoy) {
+			decoyChargeCounts[currentCharge]++;
+		} else {
+			targetChargeCounts[currentCharge]++;
+		}
+
+		if (!Double.isNaN(currentProbability)) {
+			int bin = (int) (currentProbability * PROBABILITY_BINS);
+			bin = Math.max(0, Math.min(PROBABILITY_BINS - 1, bin));
+			if (currentDecoy) {
+				decoyHistogram[bin]++;
+			} else {
+				targetHistogram[bin]++;
+			}
+		}
+
+		hasTopHit = false;
+		inTopHit = false;
+	}
+
+
+	/**
+	 * sets whether the enzyme tag needed to be added to the file
+	 * @param enzymeTagAdded
+	 */
+	public void setEnzymeTagAdded(boolean enzymeTagAdded) {
+		this.enzymeTagAdded = enzymeTagAdded;
+	}
+
+
+	/**
+	 * Creates the spec of the statistics table.
+	 * @return
+	 */
+	public static DataTableSpec createTableSpec() {
+		DataColumnSpec[] columns = new DataColumnSpec[5];
+		columns[0] = new DataColumnSpecCreator("file", StringCell.TYPE).createSpec();
+		columns[1] = new DataColumnSpecCreator("statistic", StringCell.TYPE).createSpec();
+		columns[2] = new DataColumnSpecCreator("key", StringCell.TYPE).createSpec();
+		columns[3] = new DataColumnSpecCreator("targets", IntCell.TYPE).createSpec();
+		columns[4] = new DataColumnSpecCreator("decoys", IntCell.TYPE).createSpec();
+
+		return new DataTableSpec(columns);
+	}
+
+
+	/**
+	 * Pushes the statistics into the output, one row for each total, run,
+	 * charge and histogram bin.
+	 *
+	 * @param output
+	 * @param rowNr the number of the first added row
+	 * @return the number of the next row
+	 * @throws InterruptedException
+	 */
+	public int addRowsTo(RowOutput output, int rowNr) throws InterruptedException {
+		int targets = 0;
+		int decoys = 0;
+		for (int[] counts : runCounts.values()) {
+			targets += counts[0];
+			decoys += counts[1];
+		}
+		output.push(createRow(rowNr++, "total", "", targets, decoys));
+
+		output.push(new DefaultRow(RowKey.createRowKey(rowNr++),
+				new StringCell(fileName), new StringCell("enzyme tag added"),
+				new StringCell(Boolean.toString(enzymeTagAdded)),
+				DataType.getMissingCell(), DataType.getMissingCell()));
+
+		for (Map.Entry<String, int[]> runIt : runCounts.entrySet()) {
+			output.push(createRow(rowNr++, "run", runIt.getKey(), runIt.getValue()[0], runIt.getValue()[1]));
+		}
+
+		for (int charge = 0; charge < targetChargeCounts.length; charge++) {
+			if ((targetChargeCounts[charge] > 0) || (decoyChargeCounts[charge] > 0)) {
+				output.push(createRow(rowNr++, "charge", Integer.toString(charge),
+						targetChargeCounts[charge], decoyChargeCounts[charge]));
+			}
+		}
+
+		for (int bin = 0; bin < PROBABILITY_BINS; bin++) {
+			String key = String.format(Locale.ENGLISH, "[%.2f, %.2f%s", (double) bin / PROBABILITY_BINS,
+					(double) (bin + 1) / PROBABILITY_BINS, (bin == PROBABILITY_BINS - 1) ? "]" : ")");
+			output.push(createRow(rowNr++, "probability", key, targetHistogram[bin], decoyHistogram[bin]));
+		}
+
+		return rowNr;
+	}
+
+
+	private DataRow createRow(int rowNr, String statistic, String key, int targets, int decoys) {
+		DataCell[] cells = new DataCell[5];
+		cells[0] = new StringCell(fileName);
+		cells[1] = new StringCell(statistic);
+		cells[2] = new StringCell(key);
+		cells[3] = new IntCell(targets);
+		cells[4] = new IntCell(decoys);
+		return new DefaultRow(RowKey.createRowKey(rowNr), cells);
+	}
+}
@@ -0,0 +1,110 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.knime.core.node.CanceledExecutionException;
+import org.knime.core.node.ExecutionContext;
+
+
+/**
+ * Runs the tasks of a node in a pool of threads, reports the progress and
+ * aborts all tasks when the execution is cancelled.
+ *
+ * @author julianu
+ */
+public class ParallelRunner {
+
+	/**
+	 * A task run by the {@link ParallelRunner}, which keeps its own result or
+	 * error.
+	 */
+	public interface Task extends Runnable {
+
+		/**
+		 * returns the name of the task, used in the log
+		 * @return
+		 */
+		String getName();
+
+		/**
+		 * Aborts the task, if it is already started, or prevents it from
+		 * starting otherwise.
+		 *
+		 * @param message the reason for the abort
+		 */
+		void abort(String message);
+	}
+
+
+	/**
+	 * Don't instantiate
+	 */
+	private ParallelRunner() {
+	}
+
+
+	/**
+	 * Runs the tasks with at most the given number of tasks at the same time,
+	 * they are started in the order of the list. Returns when all tasks are
+	 * finished. An exception thrown by a task aborts only this task.
+	 *
+	 * @param tasks
+	 * @param parallelRuns maximal number of tasks running at the same time
+	 * @param execContext the context for progress and cancelling
+	 * @param taskLabel the label of the tasks in the progress message, e.g. "groups"
+	 * @throws CanceledExecutionException if the execution was cancelled, all tasks are aborted then
+	 * @throws InterruptedException
+	 */
+	public static void run(List<? extends Task> tasks, int parallelRuns, ExecutionContext execContext,
+			String taskLabel) throws CanceledExecutionException, InterruptedException {
+		if (tasks.isEmpty()) {
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelRuns, tasks.size()));
+		List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+		for (Task task : tasks) {
+			futures.add(pool.submit(task));
+		}
+		pool.shutdown();
+
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+				int finished = 0;
+				for (Future<?> future : futures) {
+					if (future.isDone()) {
+						finished++;
+					}
+				}
+				execContext.setProgress((double) finished / futures.size(),
+						finished + " of " + futures.size() + " " + taskLabel + " finished");
+				execContext.checkCanceled();
+			}
+		} catch (CanceledExecutionException ex) {
+			pool.shutdownNow();
+			for (Task task : tasks) {
+				task.abort("Execution was cancelled.");
+			}
+			// the aborted tasks stop their tools before they return
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			throw ex;
+		}
+
+		// exceptions thrown by a task only show up in its future
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (ExecutionException e) {
+				Task task = tasks.get(i);
+				ProteinProphetNodeModel.logger.error("Error while executing " + task.getName(), e.getCause());
+				task.abort(e.getCause().toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.mpc.tools.knimeproteinprophet.ArrowFileWriter.Type;
+import de.mpc.tools.knimeproteinprophet.ArrowFileWriter.Vector;
+
+
+/**
+ * Exports the protein groups, proteins and peptides of a protXML file into a
+ * columnar file, which can be scanned for single columns without parsing any
+ * XML.<p>
+ * The protXML is read in one streaming pass. The result is a flat table with
+ * one row per peptide of each protein, the group and protein values are
+ * repeated in each row. The file is written in the Apache Arrow IPC file
+ * format (Feather V2) by the {@link ArrowFileWriter}, compressed with LZ4, with
+ * {@link #BATCH_ROWS} rows per record batch. Missing attributes are stored as
+ * null values. So e.g. in Python the table is read by
+ * <code>pyarrow.feather.read_table(f, columns=["protein_probability"])</code>
+ * or <code>pandas.read_feather(f)</code>.
+ *
+ * @author julianu
+ */
+public class ProtXMLColumnarExporter {
+
+	/** the file extension of the exported files */
+	public static final String FILE_EXTENSION = "arrow";
+
+	/** the number of rows per record batch */
+	public static final int BATCH_ROWS = 65536;
+
+
+	/**
+	 * A single column, whose values are collected for the current record
+	 * batch while the protXML is parsed.
+	 */
+	private static class Column {
+		private Vector vector;
+		private String element;
+		private String attribute;
+
+		public Column(String name, Type type, String element, String attribute) {
+			this.vector = new Vector(name, type);
+			this.element = element;
+			this.attribute = attribute;
+		}
+
+		/**
+		 * adds the value given as protXML attribute
+		 */
+		public void write(String value) throws IOException {
+			if ((value == null) || value.isEmpty()) {
+				vector.addNull();
+				return;
+			}
+
+			switch (vector.getType()) {
+			case INT32:
+				vector.addInt(parseInt(value));
+				break;
+
+			case FLOAT64:
+				vector.addDouble(parseDouble(value));
+				break;
+
+			case BOOL:
+				vector.addBoolean("Y".equals(value) || "1".equals(value) || "true".equals(value));
+				break;
+
+			case UTF8:
+				vector.addString(value);
+				break;
+			}
+		}
+
+		private int parseInt(String value) throws IOException {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException(invalidValueMessage(value), e);
+			}
+		}
+
+		private double parseDouble(String value) throws IOException {
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				throw new IOException(invalidValueMessage(value), e);
+			}
+		}
+
+		private String invalidValueMessage(String value) {
+			return "Invalid value \"" + value + "\" of the attribute " + attribute
+					+ " in the element <" + element + ">, expected " + vector.getType();
+		}
+	}
+
+
+	/** the protXML file */
+	private String protXMLFile;
+
+
+	public ProtXMLColumnarExporter(String protXMLFile) {
+		this.protXMLFile = protXMLFile;
+	}
+
+
+	/**
+	 * Exports the protXML file into a columnar file next to it, named like the
+	 * protXML with the extension {@link #FILE_EXTENSION}.
+	 *
+	 * @return the created file
+	 * @throws IOException
+	 */
+	public File export() throws IOException {
+		String baseName = protXMLFile;
+		int extensionIdx = baseName.lastIndexOf('.');
+		if (extensionIdx > baseName.lastIndexOf(File.separatorChar)) {
+			baseName = baseName.substring(0, extensionIdx);
+		}
+
+		File outFile = new File(baseName + "." + FILE_EXTENSION);
+		int rows = export(outFile);
+		ProteinProphetNodeModel.logger.debug("exported " + rows + " rows into " + outFile.getAbsolutePath());
+		return outFile;
+	}
+
+
+	/**
+	 * Exports the protXML file into the given columnar file.
+	 *
+	 * @param outFile
+	 * @return the number of exported rows
+	 * @throws IOException
+	 */
+	public int export(File outFile) throws IOException {
+		List<Column> groupColumns = new ArrayList<Column>();
+		List<Column> proteinColumns = new ArrayList<Column>();
+		List<Column> peptideColumns = new ArrayList<Column>();
+
+		groupColumns.add(new Column("group_number", Type.INT32, "protein_group", "group_number"));
+		groupColumns.add(new Column("group_probability", Type.FLOAT64, "protein_group", "probability"));
+
+		proteinColumns.add(new Column("protein_name", Type.UTF8, "protein", "protein_name"));
+		proteinColumns.add(new Column("protein_probability", Type.FLOAT64, "protein", "probability"));
+		proteinColumns.add(new Column("percent_coverage", Type.FLOAT64, "protein", "percent_coverage"));
+		proteinColumns.add(new Column("n_indistinguishable_proteins", Type.INT32, "protein", "n_indistinguishable_proteins"));
+		proteinColumns.add(new Column("total_number_peptides", Type.INT32, "protein", "total_number_peptides"));
+
+		peptideColumns.add(new Column("peptide_sequence", Type.UTF8, "peptide", "peptide_sequence"));
+		peptideColumns.add(new Column("charge", Type.INT32, "peptide", "charge"));
+		peptideColumns.add(new Column("initial_probability", Type.FLOAT64, "peptide", "initial_probability"));
+		peptideColumns.add(new Column("nsp_adjusted_probability", Type.FLOAT64, "peptide", "nsp_adjusted_probability"));
+		peptideColumns.add(new Column("weight", Type.FLOAT64, "peptide", "weight"));
+		peptideColumns.add(new Column("n_instances", Type.INT32, "peptide", "n_instances"));
+		peptideColumns.add(new Column("is_nondegenerate_evidence", Type.BOOL, "peptide", "is_nondegenerate_evidence"));
+		peptideColumns.add(new Column("is_contributing_evidence", Type.BOOL, "peptide", "is_contributing_evidence"));
+
+		List<Column> allColumns = new ArrayList<Column>(groupColumns);
+		allColumns.addAll(proteinColumns);
+		allColumns.addAll(peptideColumns);
+
+		List<Vector> vectors = new ArrayList<Vector>(allColumns.size());
+		for (Column column : allColumns) {
+			vectors.add(column.vector);
+		}
+
+		ArrowFileWriter writer = new ArrowFileWriter(outFile, vectors);
+		int rows = 0;
+		boolean success = false;
+		try {
+			rows = parse(writer, groupColumns, proteinColumns, peptideColumns);
+			success = true;
+		} catch (XMLStreamException e) {
+			throw new IOException("Error while parsing " + protXMLFile, e);
+		} finally {
+			writer.close();
+			if (!success) {
+				outFile.delete();
+			}
+		}
+
+		return rows;
+	}
+
+
+	/**
+	 * Parses the protXML and writes one row per peptide. The values of the
+	 * current group and protein are kept as strings and repeated for each of
+	 * its peptides.
+	 *
+	 * @return the number of written rows
+	 */
+	private int parse(ArrowFileWriter writer, List<Column> groupColumns, List<Column> proteinColumns,
+			List<Column> peptideColumns) throws IOException, XMLStreamException {
+		String[] groupValues = new String[groupColumns.size()];
+		String[] proteinValues = new String[proteinColumns.size()];
+		int rows = 0;
+		int batchRows = 0;
+
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		InputStream is = new BufferedInputStream(new FileInputStream(protXMLFile));
+		XMLStreamReader reader = factory.createXMLStreamReader(is);
+
+		try {
+			// the peptides are direct children of proteins, the indistinguishable ones etc. are ignored
+			int depthInPeptide = 0;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+
+					if (depthInPeptide > 0) {
+						depthInPeptide++;
+					} else if ("protein_group".equals(name)) {
+						readAttributes(reader, groupColumns, groupValues);
+					} else if ("protein".equals(name)) {
+						readAttributes(reader, proteinColumns, proteinValues);
+					} else if ("peptide".equals(name)) {
+						depthInPeptide = 1;
+
+						writeValues(groupColumns, groupValues);
+						writeValues(proteinColumns, proteinValues);
+						for (Column column : peptideColumns) {
+							column.write(reader.getAttributeValue(null, column.attribute));
+						}
+						rows++;
+
+						if (++batchRows == BATCH_ROWS) {
+							writer.writeBatch();
+							batchRows = 0;
+						}
+					}
+				} else if ((event == XMLStreamConstants.END_ELEMENT) && (depthInPeptide > 0)) {
+					depthInPeptide--;
+				}
+			}
+
+			if (batchRows > 0) {
+				writer.writeBatch();
+			}
+		} finally {
+			reader.close();
+			is.close();
+		}
+
+		return rows;
+	}
+
+
+	private static void readAttributes(XMLStreamReader reader, List<Column> columns, String[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = reader.getAttributeValue(null, columns.get(i).attribute);
+		}
+	}
+
+
+	private static void writeValues(List<Column> columns, String[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			columns.get(i).write(values[i]);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import org.knime.core.data.StringValue;
+import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
+import org.knime.core.node.defaultnodesettings.DialogComponentPasswordField;
+import org.knime.core.node.defaultnodesettings.DialogComponentString;
+import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+
+/**
+ * <code>NodeDialog</code> for the "ProteinProphet Batch" Node.
+ * KNIME node to perform many independent ProteinProphet inferences
+ * concurrently
+ *
+ * @author julianu
+ */
+public class ProteinProphetBatchNodeDialog extends DefaultNodeSettingsPane {
+	/**
+	 * New pane for configuring ProteinProphet batch node dialog.
+	 */
+	@SuppressWarnings("unchecked")
+	protected ProteinProphetBatchNodeDialog() {
+		super();
+		
+		addDialogComponent(new DialogComponentColumnNameSelection(
+				new SettingsModelString(ProteinProphetBatchNodeModel.CFGKEY_GROUPCOLUMN, ProteinProphetBatchNodeModel.DEFAULT_GROUPCOLUMN),
+				"Sample group column:", 0, StringValue.class));
+		
+		addDialogComponent(new DialogComponentColumnNameSelection(
+				new SettingsModelString(ProteinProphetBatchNodeModel.CFGKEY_FILECOLUMN, ProteinProphetBatchNodeModel.DEFAULT_FILECOLUMN),
+				"pepXML file column:", 0, StringValue.class));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createParallelRunsModel(),
+				"Parallel runs:", 1));
+		
+		addDialogComponent(new DialogComponentStringSelection(
+				ProteinProphetSettings.createEnzymeModel(),
+				"Enzyme:", ProteinProphetSettings.ALLOWED_ENZYMES));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createMinPepProbModel(),
+				"minimal peptide probability:", 0.01));
+		
+		addDialogComponent(new DialogComponentBoolean(
+				ProteinProphetSettings.createCorrectProbsModel(),
+				"correct probability from error probability"));
+		
+		addDialogComponent(new DialogComponentBoolean(
+				ProteinProphetSettings.createIProphetModel(),
+				"use iProphet"));
+		
+		addDialogComponent(new DialogComponentString(
+				ProteinProphetSettings.createDecoyPrefixModel(),
+				"Decoy prefix:", true, 10));
+		
+		addDialogComponent(new DialogComponentStringSelection(
+				ProteinProphetSettings.createDecoyModeModel(),
+				"Generate decoys:", FastaAssembler.DECOY_MODES));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createThreadsModel(),
+				"Threads per run:", 1));
+		
+		createNewTab("Resource Limits");
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createNiceLevelModel(),
+				"nice level (0 = unchanged):", 1));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createCpuTimeLimitModel(),
+				"CPU time limit per process in s (0 = unlimited):", 60));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createMemoryLimitModel(),
+				"memory limit (RSS) per run in MB (0 = unlimited):", 1024));
+		
+		createNewTab("Execution");
+		
+		addDialogComponent(new DialogComponentString(
+				ProteinProphetSettings.createWorkerURLModel(),
+				"Worker URL (empty = local):", false, 30));
+		
+		addDialogComponent(new DialogComponentPasswordField(
+				ProteinProphetSettings.createWorkerTokenModel(),
+				"Worker token:", 30));
+	}
+}
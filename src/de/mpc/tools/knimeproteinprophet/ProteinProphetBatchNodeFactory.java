@@ -0,0 +1,65 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import org.knime.base.node.util.exttool.ExtToolStderrNodeView;
+import org.knime.base.node.util.exttool.ExtToolStdoutNodeView;
+import org.knime.core.node.NodeDialogPane;
+import org.knime.core.node.NodeFactory;
+import org.knime.core.node.NodeView;
+
+/**
+ * <code>NodeFactory</code> for the "ProteinProphet Batch" Node.
+ * KNIME node to perform many independent ProteinProphet inferences
+ * concurrently
+ *
+ * @author julianu
+ */
+public class ProteinProphetBatchNodeFactory 
+        extends NodeFactory<ProteinProphetBatchNodeModel> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ProteinProphetBatchNodeModel createNodeModel() {
+        return new ProteinProphetBatchNodeModel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNrNodeViews() {
+        return 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NodeView<ProteinProphetBatchNodeModel> createNodeView(final int viewIndex,
+            final ProteinProphetBatchNodeModel nodeModel) {
+    	if (viewIndex == 0) {
+    		return new ExtToolStdoutNodeView<ProteinProphetBatchNodeModel>(nodeModel);
+    	} else if (viewIndex == 1) {
+    		return new ExtToolStderrNodeView<ProteinProphetBatchNodeModel>(nodeModel);
+    	}
+    	return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasDialog() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NodeDialogPane createNodeDialogPane() {
+        return new ProteinProphetBatchNodeDialog();
+    }
+
+}
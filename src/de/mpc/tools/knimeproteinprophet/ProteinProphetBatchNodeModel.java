@@ -0,0 +1,315 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.knime.base.node.util.exttool.ExtToolOutputNodeModel;
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.DataType;
+import org.knime.core.data.RowKey;
+import org.knime.core.data.StringValue;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.IntCell;
+import org.knime.core.data.def.StringCell;
+import org.knime.core.data.uri.IURIPortObject;
+import org.knime.core.data.uri.URIContent;
+import org.knime.core.node.BufferedDataContainer;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeLogger;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.port.PortObject;
+import org.knime.core.node.port.PortObjectSpec;
+import org.knime.core.node.port.PortType;
+import org.knime.core.node.streamable.BufferedDataTableRowOutput;
+
+
+/**
+ * This is the model implementation of the ProteinProphet batch node.
+ * KNIME node to perform many independent ProteinProphet inferences
+ * concurrently, one for each sample group of the input table.
+ *
+ * @author julianu
+ */
+public class ProteinProphetBatchNodeModel extends ExtToolOutputNodeModel {
+
+    // the logger instance
+    protected static final NodeLogger logger = NodeLogger
+            .getLogger(ProteinProphetBatchNodeModel.class);
+
+
+    static final String CFGKEY_GROUPCOLUMN = "group_column";
+    static final String DEFAULT_GROUPCOLUMN = "";
+
+    private final SettingsModelString m_groupcolumn =
+            new SettingsModelString(ProteinProphetBatchNodeModel.CFGKEY_GROUPCOLUMN, ProteinProphetBatchNodeModel.DEFAULT_GROUPCOLUMN);
+
+
+    static final String CFGKEY_FILECOLUMN = "pepxml_column";
+    static final String DEFAULT_FILECOLUMN = "";
+
+    private final SettingsModelString m_filecolumn =
+            new SettingsModelString(ProteinProphetBatchNodeModel.CFGKEY_FILECOLUMN, ProteinProphetBatchNodeModel.DEFAULT_FILECOLUMN);
+
+
+    private final SettingsModelInteger m_parallelruns = ProteinProphetSettings.createParallelRunsModel();
+
+
+    /** the settings of xinteract, ProteinProphet and the execution */
+    private final ProteinProphetSettings m_settings =
+            new ProteinProphetSettings(m_groupcolumn, m_filecolumn, m_parallelruns);
+
+
+    /**
+     * Constructor for the node model.
+     */
+    protected ProteinProphetBatchNodeModel() {
+        // the table with the sample groups and one URI port for the FASTA, the results and the PSM statistics
+        super(new PortType[]{BufferedDataTable.TYPE, IURIPortObject.TYPE},
+                new PortType[]{BufferedDataTable.TYPE, BufferedDataTable.TYPE});
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PortObject[] execute(PortObject[] inObjects, ExecutionContext execContext)
+            throws Exception {
+
+        // create a working directory
+        File dir = ProteinProphetNodeModel.createWorkingDirectory("PPbatch");
+
+        // get the pepXML files of each group
+        BufferedDataTable groupsTable = (BufferedDataTable) inObjects[0];
+        int groupIdx = groupsTable.getSpec().findColumnIndex(m_groupcolumn.getStringValue());
+        int fileIdx = groupsTable.getSpec().findColumnIndex(m_filecolumn.getStringValue());
+
+        Map<String, List<String>> groupFiles = new LinkedHashMap<String, List<String>>();
+        for (DataRow row : groupsTable) {
+            DataCell groupCell = row.getCell(groupIdx);
+            DataCell fileCell = row.getCell(fileIdx);
+            if (groupCell.isMissing() || fileCell.isMissing()) {
+                continue;
+            }
+
+            String group = ((StringValue) groupCell).getStringValue();
+            List<String> files = groupFiles.get(group);
+            if (files == null) {
+                files = new ArrayList<String>();
+                groupFiles.put(group, files);
+            }
+            files.add(getAbsolutePath(((StringValue) fileCell).getStringValue()));
+        }
+
+        if (groupFiles.isEmpty()) {
+            throw new Exception("No sample groups with pepXML files given.");
+        }
+
+        // get the input FASTA files and assemble the database
+        IURIPortObject filesPort = (IURIPortObject) inObjects[1];
+        List<String> fastaFiles = new ArrayList<String>();
+        for (URIContent uric : filesPort.getURIContents()) {
+            URI uri = uric.getURI();
+            fastaFiles.add(new File(uri).getAbsolutePath());
+        }
+
+        execContext.setMessage("assembling FASTA database");
+        String fastaFile = m_settings.assembleDatabase(fastaFiles);
+
+        // set up the runs, the largest inputs are started first to keep the pool busy till the end
+        List<InferenceRun> runs = new ArrayList<InferenceRun>(groupFiles.size());
+        int groupNr = 0;
+        for (Map.Entry<String, List<String>> groupIt : groupFiles.entrySet()) {
+            File groupDir = new File(dir, String.format("group%06d", groupNr++));
+            groupDir.mkdirs();
+            groupDir.deleteOnExit();
+
+            InferenceRun run = new InferenceRun(groupIt.getKey(), m_settings, groupIt.getValue(), fastaFile,
+                    m_settings.getMinPepProb(), m_settings.getUseIProphet(), groupDir);
+            run.setCheckInputFiles(true);
+            runs.add(run);
+        }
+
+        List<InferenceRun> scheduled = new ArrayList<InferenceRun>(runs);
+        Collections.sort(scheduled, new Comparator<InferenceRun>() {
+            @Override
+            public int compare(InferenceRun o1, InferenceRun o2) {
+                return Long.compare(o2.getInputSize(), o1.getInputSize());
+            }
+        });
+
+        ParallelRunner.run(scheduled, m_parallelruns.getIntValue(), execContext, "groups");
+
+
+        // collect the results in the order of the input table
+        LinkedList<String> externalOutput = new LinkedList<String>();
+        LinkedList<String> externalErrorOutput = new LinkedList<String>();
+        List<String> failedGroups = new ArrayList<String>();
+
+        BufferedDataContainer container = execContext.createDataContainer(createOutputSpec());
+        BufferedDataTableRowOutput statisticsOutput = new BufferedDataTableRowOutput(
+                execContext.createDataContainer(PSMStatistics.createTableSpec()));
+        int rowNr = 0;
+        int statisticsRowNr = 0;
+        for (InferenceRun run : runs) {
+            run.appendOutputs(externalOutput, externalErrorOutput);
+
+            for (PSMStatistics statistics : run.getStatistics()) {
+                statisticsRowNr = statistics.addRowsTo(statisticsOutput, statisticsRowNr);
+            }
+
+            // the failed groups keep their row, with the error instead of the results
+            DataRow row;
+            if (run.isSuccessful()) {
+                row = new DefaultRow(RowKey.createRowKey(rowNr++),
+                        new StringCell(run.getName()),
+                        new StringCell(run.getProtXMLFile()),
+                        new StringCell(run.getExcelFile()),
+                        new StringCell(run.getColumnarFile()),
+                        new IntCell((int) (run.getPeakRSS() / 1024)),
+                        DataType.getMissingCell());
+            } else {
+                failedGroups.add(run.getFailureDescription());
+                String error = (run.getErrorMessage() != null) ? run.getErrorMessage() : "no results created";
+                row = new DefaultRow(RowKey.createRowKey(rowNr++),
+                        new StringCell(run.getName()),
+                        DataType.getMissingCell(),
+                        DataType.getMissingCell(),
+                        DataType.getMissingCell(),
+                        new IntCell((int) (run.getPeakRSS() / 1024)),
+                        new StringCell(error));
+            }
+            container.addRowToTable(row);
+        }
+        container.close();
+        statisticsOutput.close();
+
+        if (failedGroups.size() == runs.size()) {
+            setFailedExternalOutput(externalOutput);
+            setFailedExternalErrorOutput(externalErrorOutput);
+            throw new Exception("Error while executing ProteinProphet for all groups " + failedGroups + ".");
+        }
+
+        if (!failedGroups.isEmpty()) {
+            setWarningMessage("ProteinProphet failed for " + failedGroups.size() + " of " + runs.size()
+                    + " groups " + failedGroups + ", see the column \"error\".");
+        }
+
+        setExternalOutput(externalOutput);
+        setExternalErrorOutput(externalErrorOutput);
+
+        return new PortObject[]{container.getTable(), statisticsOutput.getDataTable()};
+    }
+
+
+    /**
+     * Returns the absolute path of a file given either as path or as URI.
+     *
+     * @param fileString
+     * @return
+     * @throws Exception
+     */
+    private static String getAbsolutePath(String fileString) throws Exception {
+        if (fileString.startsWith("file:")) {
+            return new File(new URI(fileString)).getAbsolutePath();
+        } else {
+            return new File(fileString).getAbsolutePath();
+        }
+    }
+
+
+    /**
+     * Creates the spec of the outgoing table.
+     *
+     * @return
+     */
+    private static DataTableSpec createOutputSpec() {
+        DataColumnSpec[] columns = new DataColumnSpec[6];
+        columns[0] = new DataColumnSpecCreator("group", StringCell.TYPE).createSpec();
+        columns[1] = new DataColumnSpecCreator("protXML", StringCell.TYPE).createSpec();
+        columns[2] = new DataColumnSpecCreator("xls", StringCell.TYPE).createSpec();
+        columns[3] = new DataColumnSpecCreator("columnar", StringCell.TYPE).createSpec();
+        columns[4] = new DataColumnSpecCreator("peak RSS (MB)", IntCell.TYPE).createSpec();
+        columns[5] = new DataColumnSpecCreator("error", StringCell.TYPE).createSpec();
+
+        return new DataTableSpec(columns);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void reset() {
+        super.reset();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PortObjectSpec[] configure(final PortObjectSpec[] inSpecs)
+            throws InvalidSettingsException {
+
+        DataTableSpec groupsSpec = (DataTableSpec) inSpecs[0];
+        if (groupsSpec != null) {
+            for (SettingsModelString column : new SettingsModelString[]{m_groupcolumn, m_filecolumn}) {
+                int idx = groupsSpec.findColumnIndex(column.getStringValue());
+                if ((idx < 0) || !groupsSpec.getColumnSpec(idx).getType().isCompatible(StringValue.class)) {
+                    throw new InvalidSettingsException("Please select a string column for '" + column.getKey() + "'.");
+                }
+            }
+        }
+
+        // check the settings and the executables
+        m_settings.configure();
+
+        return new PortObjectSpec[]{createOutputSpec(), PSMStatistics.createTableSpec()};
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void saveSettingsTo(final NodeSettingsWO settings) {
+        m_settings.saveSettingsTo(settings);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
+            throws InvalidSettingsException {
+        m_settings.loadSettingsFrom(settings);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void validateSettings(final NodeSettingsRO settings)
+            throws InvalidSettingsException {
+        m_settings.validateSettings(settings);
+    }
+}
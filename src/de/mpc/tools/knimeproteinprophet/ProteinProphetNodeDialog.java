@@ -3,12 +3,9 @@ package de.mpc.tools.knimeproteinprophet;
 import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
 import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
 import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
+import org.knime.core.node.defaultnodesettings.DialogComponentPasswordField;
 import org.knime.core.node.defaultnodesettings.DialogComponentString;
 import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
-import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
-import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
-import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
-import org.knime.core.node.defaultnodesettings.SettingsModelString;
 
 /**
  * <code>NodeDialog</code> for the "ProteinProphet" Node.
@@ -31,28 +28,56 @@ public class ProteinProphetNodeDialog extends DefaultNodeSettingsPane {
 		super();
 		
 		addDialogComponent(new DialogComponentStringSelection(
-				new SettingsModelString(ProteinProphetNodeModel.CFGKEY_ENZYME, ProteinProphetNodeModel.DEFAULT_ENZYME),
-				"Enzyme:", ProteinProphetNodeModel.ALLOWED_ENZYMES));
+				ProteinProphetSettings.createEnzymeModel(),
+				"Enzyme:", ProteinProphetSettings.ALLOWED_ENZYMES));
 		
 		addDialogComponent(new DialogComponentNumber(
-				new SettingsModelDoubleBounded(ProteinProphetNodeModel.CFGKEY_MINPEPPROB, ProteinProphetNodeModel.DEFAULT_MINPEPPROB, 0.0, 1.0),
+				ProteinProphetSettings.createMinPepProbModel(),
 				"minimal peptide probability:", 0.01));
 		
 		addDialogComponent(new DialogComponentBoolean(
-				new SettingsModelBoolean(ProteinProphetNodeModel.CFGKEY_CORRECTPROBS, ProteinProphetNodeModel.DEFAULT_CORRECTPROBS),
+				ProteinProphetSettings.createCorrectProbsModel(),
 				"correct probability from error probability"));
 		
 		addDialogComponent(new DialogComponentBoolean(
-				new SettingsModelBoolean(ProteinProphetNodeModel.CFGKEY_IPROPHET, ProteinProphetNodeModel.DEFAULT_IPROPHET),
+				ProteinProphetSettings.createIProphetModel(),
 				"use iProphet"));
 		
 		addDialogComponent(new DialogComponentString(
-				new SettingsModelString(ProteinProphetNodeModel.CFGKEY_DECOYPREFIX, ProteinProphetNodeModel.DEFAULT_DECOYPREFIX),
+				ProteinProphetSettings.createDecoyPrefixModel(),
 				"Decoy prefix:", true, 10));
 		
+		addDialogComponent(new DialogComponentStringSelection(
+				ProteinProphetSettings.createDecoyModeModel(),
+				"Generate decoys:", FastaAssembler.DECOY_MODES));
+		
 		addDialogComponent(new DialogComponentNumber(
-				new SettingsModelInteger(ProteinProphetNodeModel.CFGKEY_THREADS, ProteinProphetNodeModel.DEFAULT_THREADS),
+				ProteinProphetSettings.createThreadsModel(),
 				"Threads:", 1));
+		
+		createNewTab("Resource Limits");
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createNiceLevelModel(),
+				"nice level (0 = unchanged):", 1));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createCpuTimeLimitModel(),
+				"CPU time limit per process in s (0 = unlimited):", 60));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createMemoryLimitModel(),
+				"memory limit (RSS) in MB (0 = unlimited):", 1024));
+		
+		createNewTab("Execution");
+		
+		addDialogComponent(new DialogComponentString(
+				ProteinProphetSettings.createWorkerURLModel(),
+				"Worker URL (empty = local):", false, 30));
+		
+		addDialogComponent(new DialogComponentPasswordField(
+				ProteinProphetSettings.createWorkerTokenModel(),
+				"Worker token:", 30));
 	}
 }
 
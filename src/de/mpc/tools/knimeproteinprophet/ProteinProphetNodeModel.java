@@ -14,11 +14,9 @@ import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Map;
 import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -28,15 +26,20 @@ import org.knime.core.data.uri.IURIPortObject;
 import org.knime.core.data.uri.URIContent;
 import org.knime.core.data.uri.URIPortObject;
 import org.knime.core.data.uri.URIPortObjectSpec;
-import org.knime.core.node.CanceledExecutionException;
-import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
-import org.knime.core.node.defaultnodesettings.SettingsModelDouble;
-import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
-import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
-import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.BufferedDataTable;
 import org.knime.core.node.port.PortObject;
 import org.knime.core.node.port.PortObjectSpec;
 import org.knime.core.node.port.PortType;
+import org.knime.core.node.streamable.BufferedDataTableRowOutput;
+import org.knime.core.node.streamable.InputPortRole;
+import org.knime.core.node.streamable.OutputPortRole;
+import org.knime.core.node.streamable.PartitionInfo;
+import org.knime.core.node.streamable.PortInput;
+import org.knime.core.node.streamable.PortObjectInput;
+import org.knime.core.node.streamable.PortObjectOutput;
+import org.knime.core.node.streamable.PortOutput;
+import org.knime.core.node.streamable.RowOutput;
+import org.knime.core.node.streamable.StreamableOperator;
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.InvalidSettingsException;
 import org.knime.core.node.NodeLogger;
@@ -57,89 +60,58 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
             .getLogger(ProteinProphetNodeModel.class);
 
 
-    static final Map<String, String> enzymeNameToShort;
-    static {
-        enzymeNameToShort = new HashMap<String, String>();
-
-        enzymeNameToShort.put("Trypsin", "T");
-        enzymeNameToShort.put("StrictTrypsin", "S");
-        enzymeNameToShort.put("Chymotrypsin", "C");
-        enzymeNameToShort.put("RalphTrypsin", "R");
-        enzymeNameToShort.put("AspN", "A");
-        enzymeNameToShort.put("GluC", "G");
-        enzymeNameToShort.put("GluC Bicarb", "B");
-        enzymeNameToShort.put("CNBr", "M");
-        enzymeNameToShort.put("Trypsin/CNBr", "D");
-        enzymeNameToShort.put("Chymotrypsin/AspN/Trypsin", "3");
-        enzymeNameToShort.put("Elastase", "E");
-        enzymeNameToShort.put("LysC / Trypsin_K (cuts after K not before P)]", "K");
-        enzymeNameToShort.put("LysN (cuts before K)]", "L");
-        enzymeNameToShort.put("LysN Promisc (cuts before KASR)]", "P");
-        enzymeNameToShort.put("Nonspecific or None", "N");
-    }
-
-    static final String CFGKEY_ENZYME = "Enzyme";
-    static final String[] ALLOWED_ENZYMES = enzymeNameToShort.keySet().toArray(new String[1]);
-    static final String DEFAULT_ENZYME = ALLOWED_ENZYMES[0];
-
-
-    private final SettingsModelString m_enzyme =
-            new SettingsModelString(ProteinProphetNodeModel.CFGKEY_ENZYME, ProteinProphetNodeModel.DEFAULT_ENZYME);
-
-
-    static final String CFGKEY_MINPEPPROB = "min_pep_prob";
-    static final Double DEFAULT_MINPEPPROB = 0.9;
-
-    private final SettingsModelDouble m_pepprob =
-            new SettingsModelDoubleBounded(ProteinProphetNodeModel.CFGKEY_MINPEPPROB, ProteinProphetNodeModel.DEFAULT_MINPEPPROB, 0.0, 1.0);
-
+    /** the settings of xinteract, ProteinProphet and the execution */
+    private final ProteinProphetSettings m_settings = new ProteinProphetSettings();
 
-    static final String CFGKEY_CORRECTPROBS = "correct_probabilities";
-    static final Boolean DEFAULT_CORRECTPROBS = false;
 
-    private final SettingsModelBoolean m_correctprobs =
-            new SettingsModelBoolean(ProteinProphetNodeModel.CFGKEY_CORRECTPROBS, ProteinProphetNodeModel.DEFAULT_CORRECTPROBS);
+    /** name of the flow variable holding the peak memory usage of the run */
+    static final String FLOWVAR_PEAKRSS = "ProteinProphet_peak_RSS_MB";
 
 
-    static final String CFGKEY_IPROPHET = "use_iprophet";
-    static final Boolean DEFAULT_IPROPHET = false;
-
-    private final SettingsModelBoolean m_iprophet =
-            new SettingsModelBoolean(ProteinProphetNodeModel.CFGKEY_IPROPHET, ProteinProphetNodeModel.DEFAULT_IPROPHET);
-
-
-    static final String CFGKEY_DECOYPREFIX = "Decoyprefix";
-    static final String DEFAULT_DECOYPREFIX = "decoy_";
-
-    private final SettingsModelString m_decoyprefix =
-            new SettingsModelString(ProteinProphetNodeModel.CFGKEY_DECOYPREFIX, ProteinProphetNodeModel.DEFAULT_DECOYPREFIX);
-
-
-    static final String CFGKEY_THREADS = "Threads";
-    static final Integer DEFAULT_THREADS = 1;
+    /**
+     * Constructor for the node model.
+     */
+    protected ProteinProphetNodeModel() {
+        // two incoming URI ports, two outgoing URI ports, the PSM statistics and the columnar export
+        super(new PortType[]{IURIPortObject.TYPE, IURIPortObject.TYPE},
+                new PortType[]{IURIPortObject.TYPE, IURIPortObject.TYPE, BufferedDataTable.TYPE, IURIPortObject.TYPE});
+    }
 
-    private final SettingsModelInteger m_threads =
-            new SettingsModelInteger(ProteinProphetNodeModel.CFGKEY_THREADS, ProteinProphetNodeModel.DEFAULT_THREADS);
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PortObject[] execute(PortObject[] inObjects, ExecutionContext execContext)
+            throws Exception {
+        BufferedDataTableRowOutput statisticsOutput = new BufferedDataTableRowOutput(
+                execContext.createDataContainer(PSMStatistics.createTableSpec()));
 
-    /** the executable for xinteract */
-    private File execXinteract = null;
+        PortObject[] outPorts = runInference(inObjects, statisticsOutput, execContext);
+        outPorts[2] = statisticsOutput.getDataTable();
 
-    /** the executable for ProteinProphet */
-    private File execProteinProphet = null;
+        return outPorts;
+    }
 
 
-    /** the actual execution thread */
-    private Thread executionThread = null;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InputPortRole[] getInputPortRoles() {
+        // xinteract needs all pepXML files and the whole database at once
+        return new InputPortRole[]{InputPortRole.NONDISTRIBUTED_NONSTREAMABLE,
+                InputPortRole.NONDISTRIBUTED_NONSTREAMABLE};
+    }
 
 
     /**
-     * Constructor for the node model.
+     * {@inheritDoc}
      */
-    protected ProteinProphetNodeModel() {
-        // two incoming URI ports, one outgoing URI port
-        super(new PortType[]{IURIPortObject.TYPE, IURIPortObject.TYPE},
-                new PortType[]{IURIPortObject.TYPE, IURIPortObject.TYPE});
+    @Override
+    public OutputPortRole[] getOutputPortRoles() {
+        return new OutputPortRole[]{OutputPortRole.NONDISTRIBUTED, OutputPortRole.NONDISTRIBUTED,
+                OutputPortRole.NONDISTRIBUTED, OutputPortRole.NONDISTRIBUTED};
     }
 
 
@@ -147,22 +119,45 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
      * {@inheritDoc}
      */
     @Override
-    protected PortObject[] execute(PortObject[] inObjects, ExecutionContext execContext)
-            throws Exception {
+    public StreamableOperator createStreamableOperator(PartitionInfo partitionInfo, PortObjectSpec[] inSpecs)
+            throws InvalidSettingsException {
+        return new StreamableOperator() {
+            @Override
+            public void runFinal(PortInput[] inputs, PortOutput[] outputs, ExecutionContext exec)
+                    throws Exception {
+                PortObject[] inObjects = new PortObject[inputs.length];
+                for (int i = 0; i < inputs.length; i++) {
+                    inObjects[i] = ((PortObjectInput) inputs[i]).getPortObject();
+                }
+
+                // the statistics are pushed file by file, the other ports are set when the inference is finished
+                PortObject[] outPorts = runInference(inObjects, (RowOutput) outputs[2], exec);
+                for (int i = 0; i < outputs.length; i++) {
+                    if (i != 2) {
+                        ((PortObjectOutput) outputs[i]).setPortObject(outPorts[i]);
+                    }
+                }
+            }
+        };
+    }
 
-        // create a working directory
-        Random randomNumberGenerator = new Random();
-        int num = randomNumberGenerator.nextInt(Integer.MAX_VALUE);
-        File dir = new File(System.getProperty("java.io.tmpdir") + File.separator
-                + String.format("%s%06d", "PPinference", num));
 
-        while (dir.exists()) {
-            num = randomNumberGenerator.nextInt(Integer.MAX_VALUE);
-            dir = new File(System.getProperty("java.io.tmpdir") + File.separator
-                    + String.format("%s%06d", "PPinference", num));
-        }
-        dir.mkdirs();
-        dir.deleteOnExit();
+    /**
+     * Performs the preprocessing and inference. The PSM statistics are pushed
+     * into the given output as soon as each file is checked and the output is
+     * closed before the inference starts.
+     *
+     * @param inObjects
+     * @param statisticsOutput
+     * @param execContext
+     * @return the outgoing ports, without the statistics table
+     * @throws Exception
+     */
+    private PortObject[] runInference(PortObject[] inObjects, RowOutput statisticsOutput,
+            ExecutionContext execContext) throws Exception {
+
+        // create a working directory
+        File dir = createWorkingDirectory("PPinference");
 
         // get the input pepXML files
         IURIPortObject filesPort = (IURIPortObject) inObjects[0];
@@ -173,76 +168,88 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
             inputFiles.add(new File(uri).getAbsolutePath());
         }
 
-        // get the input FASTA files
+        // check the input files, whether it has the enzyme in the "<msms_run_summary>" tag
+        int statisticsRowNr = 0;
+        for (int i = 0; i < inputFiles.size(); i++) {
+            PSMStatistics statistics = m_settings.checkInputFile(inputFiles, i, dir);
+            statisticsRowNr = statistics.addRowsTo(statisticsOutput, statisticsRowNr);
+        }
+        statisticsOutput.close();
+
+
+        // get the input FASTA files and assemble the database
         filesPort = (IURIPortObject) inObjects[1];
         uris = filesPort.getURIContents();
-        String fastaFile = null;
+        List<String> fastaFiles = new ArrayList<String>(uris.size());
         for (URIContent uric : uris) {
             URI uri = uric.getURI();
-            fastaFile = new File(uri).getAbsolutePath();
-            break;
+            fastaFiles.add(new File(uri).getAbsolutePath());
         }
 
+        execContext.setMessage("assembling FASTA database");
+        String fastaFile = m_settings.assembleDatabase(fastaFiles);
 
-        // create correct enzyme
-        String enzyme = enzymeNameToShort.get(m_enzyme.getStringValue());
-
-        // check the input files, whether it has the enzyme in the "<msms_run_summary>" tag
-        ListIterator<String> inputFilesIt = inputFiles.listIterator();
-        while (inputFilesIt.hasNext()) {
-            String file = inputFilesIt.next();
-            String newFile = checkInputFile(file, enzyme, dir);
-
-            if (!newFile.equals(file)) {
-                inputFilesIt.set(newFile);
-            }
-        }
 
+        InferenceRun run = new InferenceRun("ProteinProphet", m_settings, inputFiles, fastaFile,
+                m_settings.getMinPepProb(), m_settings.getUseIProphet(), dir);
+        ParallelRunner.run(Collections.singletonList(run), 1, execContext, "runs");
 
-        LinkedList<String> externalOutput = new LinkedList<String>();
-        LinkedList<String> externalErrorOutput = new LinkedList<String>();
+        int peakRSS = (int) (run.getPeakRSS() / 1024);
+        logger.info("peak memory usage (RSS) of the run: " + peakRSS + " MB");
+        pushFlowVariableInt(FLOWVAR_PEAKRSS, peakRSS);
 
-        ProteinProphetRunnable pprunner =
-                new ProteinProphetRunnable(inputFiles, fastaFile, enzyme, m_pepprob.getDoubleValue(), m_iprophet.getBooleanValue(),
-                        m_decoyprefix.getStringValue(), m_threads.getIntValue(), execXinteract.getAbsolutePath(),
-                        execProteinProphet.getAbsolutePath(), dir.getAbsolutePath(),
-                        externalOutput, externalErrorOutput);
 
-        executionThread = new Thread(pprunner);
-        executionThread.start();
-
-        while (executionThread.isAlive()) {
-            executionThread.join(1000);
-
-            try {
-                execContext.checkCanceled();
-            } catch (CanceledExecutionException ex) {
-                executionThread.interrupt();
-                executionThread.join();
-            }
-        }
-
-
-        String protXMLFile = pprunner.getProtXMLFile();
         List<URIContent> outProtXML = new ArrayList<URIContent>();
         List<URIContent> outXLS = new ArrayList<URIContent>();
+        List<URIContent> outColumnar = new ArrayList<URIContent>();
 
-        if ((protXMLFile != null) && Files.exists(new File(protXMLFile).toPath(), new LinkOption[]{})) {
-            outProtXML.add(new URIContent(new File(protXMLFile).toURI(), "protXML"));
-            outXLS.add(new URIContent(new File(pprunner.getExcelFile()).toURI(), "xls"));
+        if (run.isSuccessful()) {
+            outProtXML.add(new URIContent(new File(run.getProtXMLFile()).toURI(), "protXML"));
+            outXLS.add(new URIContent(new File(run.getExcelFile()).toURI(), "xls"));
+            outColumnar.add(new URIContent(new File(run.getColumnarFile()).toURI(),
+                    ProtXMLColumnarExporter.FILE_EXTENSION));
 
-            setExternalOutput(externalOutput);
-            setExternalErrorOutput(externalErrorOutput);
+            setExternalOutput(new LinkedList<String>(run.getOutput()));
+            setExternalErrorOutput(new LinkedList<String>(run.getErrorOutput()));
         } else {
-            setFailedExternalOutput(externalOutput);
-            setFailedExternalErrorOutput(externalErrorOutput);
+            setFailedExternalOutput(new LinkedList<String>(run.getOutput()));
+            setFailedExternalErrorOutput(new LinkedList<String>(run.getErrorOutput()));
+            if (run.getErrorMessage() != null) {
+                throw new Exception(run.getErrorMessage());
+            }
             throw new Exception("Error while executing ProteinProphet.");
         }
 
         URIPortObject outProtXMLPort = new URIPortObject(outProtXML);
         URIPortObject outXLSPort = new URIPortObject(outXLS);
+        URIPortObject outColumnarPort = new URIPortObject(outColumnar);
+
+        return new PortObject[]{outProtXMLPort, outXLSPort, null, outColumnarPort};
+    }
+
+
+    /**
+     * Creates a new, not yet existing directory with the given prefix in the
+     * temporary directory.
+     *
+     * @param prefix
+     * @return
+     */
+    static File createWorkingDirectory(String prefix) {
+        Random randomNumberGenerator = new Random();
+        int num = randomNumberGenerator.nextInt(Integer.MAX_VALUE);
+        File dir = new File(System.getProperty("java.io.tmpdir") + File.separator
+                + String.format("%s%06d", prefix, num));
+
+        while (dir.exists()) {
+            num = randomNumberGenerator.nextInt(Integer.MAX_VALUE);
+            dir = new File(System.getProperty("java.io.tmpdir") + File.separator
+                    + String.format("%s%06d", prefix, num));
+        }
+        dir.mkdirs();
+        dir.deleteOnExit();
 
-        return new PortObject[]{outProtXMLPort, outXLSPort};
+        return dir;
     }
 
 
@@ -250,12 +257,15 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
      * Checks the input file for errors and corrects them while copying the
      * file and returning the new filename.<p>
      * Additionally, it needs to change the search-engine name to avoid trouble
-     * with unneeded corrections.
+     * with unneeded corrections.<p>
+     * If statistics are given, they are collected while pre-checking the file.
      *
      * @param fileName
+     * @param statistics the statistics of the file, may be null
      * @return
      */
-    private String checkInputFile(String fileName, String enzymeShort, File tmpDir) throws FileNotFoundException, IOException{
+    static String checkInputFile(String fileName, String enzymeShort, boolean correctprobs, File tmpDir,
+            PSMStatistics statistics) throws FileNotFoundException, IOException {
         String newFilename = fileName;
 
         boolean containsEnzyme = false;
@@ -271,9 +281,17 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
             if (line.contains("<sample_enzyme")) {
                 containsEnzyme = true;
             }
+
+            if (statistics != null) {
+                statistics.processLine(line);
+            }
         }
         br.close();
 
+        if (statistics != null) {
+            statistics.finish();
+        }
+
 
         // now copy the file and perform corrections
         fis = new FileInputStream(fileName);
@@ -286,7 +304,6 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
 
         Pattern se_pattern = Pattern.compile(".*search_engine=\"([^\"]*)\".*");
         Pattern pepprob_pattern = Pattern.compile(".*peptideprophet_result .*probability=\"([^\"]*)\".*");
-        boolean correctprobs = m_correctprobs.getBooleanValue();
 
         while ((line = br.readLine()) != null) {
             Matcher se_matcher = se_pattern.matcher(line);
@@ -309,6 +326,10 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
                 logger.warn(fileName + " needs to add the enzyme tag.");
                 bw.append(createEnzymeTag(enzymeShort));
                 bw.append("\n");
+
+                if (statistics != null) {
+                    statistics.setEnzymeTagAdded(true);
+                }
             }
         }
 
@@ -324,7 +345,7 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
      * @param enzyme
      * @return
      */
-    private String createEnzymeTag(String enzyme) {
+    private static String createEnzymeTag(String enzyme) {
         String name = null;
         String cut = null;
         String no_cut = null;
@@ -359,39 +380,49 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
     protected PortObjectSpec[] configure(final PortObjectSpec[] inSpecs)
             throws InvalidSettingsException {
 
-        // check for the executables
-        String path;
-        try {
-            path = this.getClass().getProtectionDomain().getCodeSource().getLocation().toURI().getPath();
-            if (!path.endsWith(File.separator)) {
-                // we are in the jar, only get the path to it
-                path = path.substring(0, path.lastIndexOf(File.separator) + 1);
-            }
+        // check the settings and the executables
+        m_settings.configure();
 
-            path += "executables" + File.separator;
+        PortObjectSpec[] out_spec = new PortObjectSpec[4];
+        out_spec[0] = new URIPortObjectSpec(new String[]{"protxml", "protXML", "XML"});
+        out_spec[1] = new URIPortObjectSpec(new String[]{"xls"});
+        out_spec[2] = PSMStatistics.createTableSpec();
+        out_spec[3] = new URIPortObjectSpec(new String[]{ProtXMLColumnarExporter.FILE_EXTENSION});
 
-            execXinteract = new File(path + File.separator + "xinteract");
-            if (!Files.exists(execXinteract.toPath(), new LinkOption[]{})) {
-                throw new InvalidSettingsException("Failed to find matching binary for xinteract in '" + path + "'.");
-            }
+        return out_spec;
+    }
 
-            execProteinProphet = new File(path + File.separator + "ProteinProphet");
-            if (!Files.exists(execProteinProphet.toPath(), new LinkOption[]{})) {
-                throw new InvalidSettingsException("Failed to find matching binary for ProteinProphet in '" + path + "'.");
-            }
+
+    /**
+     * Looks for the executable with the given name in the "executables"
+     * folder of the plugin.
+     *
+     * @param name
+     * @return the executable or null, if the plugin path could not be determined
+     * @throws InvalidSettingsException if the executable does not exist
+     */
+    static File findExecutable(String name) throws InvalidSettingsException {
+        String path;
+        try {
+            path = ProteinProphetNodeModel.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath();
         } catch (URISyntaxException e) {
             logger.error("could not find executables", e);
+            return null;
         }
 
-        if ((execXinteract == null) || (execProteinProphet == null)) {
-            logger.error("could not find executables");
+        if (!path.endsWith(File.separator)) {
+            // we are in the jar, only get the path to it
+            path = path.substring(0, path.lastIndexOf(File.separator) + 1);
         }
 
-        PortObjectSpec[] out_spec = new PortObjectSpec[2];
-        out_spec[0] = new URIPortObjectSpec(new String[]{"protxml", "protXML", "XML"});
-        out_spec[1] = new URIPortObjectSpec(new String[]{"xls"});
+        path += "executables" + File.separator;
 
-        return out_spec;
+        File executable = new File(path + File.separator + name);
+        if (!Files.exists(executable.toPath(), new LinkOption[]{})) {
+            throw new InvalidSettingsException("Failed to find matching binary for " + name + " in '" + path + "'.");
+        }
+
+        return executable;
     }
 
 
@@ -400,12 +431,7 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
      */
     @Override
     protected void saveSettingsTo(final NodeSettingsWO settings) {
-        m_enzyme.saveSettingsTo(settings);
-        m_pepprob.saveSettingsTo(settings);
-        m_correctprobs.saveSettingsTo(settings);
-        m_iprophet.saveSettingsTo(settings);
-        m_decoyprefix.saveSettingsTo(settings);
-        m_threads.saveSettingsTo(settings);
+        m_settings.saveSettingsTo(settings);
     }
 
 
@@ -415,12 +441,7 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
     @Override
     protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
             throws InvalidSettingsException {
-        m_enzyme.loadSettingsFrom(settings);
-        m_pepprob.loadSettingsFrom(settings);
-        m_correctprobs.loadSettingsFrom(settings);
-        m_iprophet.loadSettingsFrom(settings);
-        m_decoyprefix.loadSettingsFrom(settings);
-        m_threads.loadSettingsFrom(settings);
+        m_settings.loadSettingsFrom(settings);
     }
 
 
@@ -430,11 +451,6 @@ public class ProteinProphetNodeModel extends ExtToolOutputNodeModel {
     @Override
     protected void validateSettings(final NodeSettingsRO settings)
             throws InvalidSettingsException {
-        m_enzyme.validateSettings(settings);
-        m_pepprob.validateSettings(settings);
-        m_correctprobs.validateSettings(settings);
-        m_iprophet.validateSettings(settings);
-        m_decoyprefix.validateSettings(settings);
-        m_threads.validateSettings(settings);
+        m_settings.validateSettings(settings);
     }
 }
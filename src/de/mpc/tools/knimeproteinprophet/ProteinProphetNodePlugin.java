@@ -4,6 +4,9 @@
  */
 package de.mpc.tools.knimeproteinprophet;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import org.eclipse.core.runtime.Plugin;
 import org.osgi.framework.BundleContext;
 
@@ -20,6 +23,12 @@ public class ProteinProphetNodePlugin extends Plugin {
     // The shared instance.
     private static ProteinProphetNodePlugin plugin;
 
+    // The logger of the package, kept referenced while the handler is installed.
+    private Logger packageLogger;
+
+    // Forwards the log of the execution classes to the KNIME log.
+    private NodeLoggerHandler logHandler;
+
     /**
      * The constructor.
      */
@@ -38,6 +47,11 @@ public class ProteinProphetNodePlugin extends Plugin {
     public void start(final BundleContext context) throws Exception {
         super.start(context);
 
+        packageLogger = Logger.getLogger(ProteinProphetNodePlugin.class.getPackage().getName());
+        logHandler = new NodeLoggerHandler(ProteinProphetNodeModel.logger);
+        packageLogger.setLevel(Level.ALL);
+        packageLogger.setUseParentHandlers(false);
+        packageLogger.addHandler(logHandler);
     }
 
     /**
@@ -48,6 +62,11 @@ public class ProteinProphetNodePlugin extends Plugin {
      */
     @Override
     public void stop(final BundleContext context) throws Exception {
+        if (packageLogger != null) {
+            packageLogger.removeHandler(logHandler);
+            packageLogger.setUseParentHandlers(true);
+            packageLogger = null;
+        }
         super.stop(context);
         plugin = null;
     }
@@ -1,14 +1,22 @@
 package de.mpc.tools.knimeproteinprophet;
 
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 public class ProteinProphetRunnable implements Runnable {
 	
+	/** the name of the xinteract output in the execution directory */
+	public static final String XINTERACT_OUTPUT = "xinteractout.pep.xml";
+	
+	/** the default name of the ProteinProphet result files */
+	public static final String DEFAULT_RESULT_NAME = "proteinprophet";
+	
+	/** the logger, forwarded to the KNIME log inside the plugin */
+	private static final Logger logger = Logger.getLogger(ProteinProphetRunnable.class.getName());
+	
 	/** the input pepXML files */
 	private List<String> pepXMLfiles;
 	
@@ -45,8 +53,26 @@ public class ProteinProphetRunnable implements Runnable {
 	/** the STDERR output */
 	private List<String> errorOutput;
 	
-	/** the currently running thread */
-	private Process runningProcess = null;
+	/** the backend executing the tools */
+	private ExecutionBackend backend;
+	
+	/** nice level of the started processes, 0 for not changing it */
+	private int niceLevel;
+	
+	/** maximal CPU time of each started process in seconds, 0 for no limit */
+	private int cpuTimeLimit;
+	
+	/** maximal RSS of each started process (including its children) in MB, 0 for no limit */
+	private int memoryLimit;
+	
+	/** highest RSS of the started processes in kB */
+	private long peakRSS;
+	
+	/** the reason, why the run was aborted or failed */
+	private volatile String errorMessage;
+	
+	/** whether the run was aborted */
+	private volatile boolean aborted;
 	
 	/** the final protXML file */
 	private String protXMLFile;
@@ -54,6 +80,15 @@ public class ProteinProphetRunnable implements Runnable {
 	/** the final tab separated file */
 	private String excelFile;
 	
+	/** whether xinteract is run, otherwise its output must exist already */
+	private boolean runXinteract;
+	
+	/** whether ProteinProphet is run, otherwise only xinteract is run */
+	private boolean runProteinProphet;
+	
+	/** the name of the ProteinProphet result files, without extension */
+	private String resultName;
+	
 	
 	public ProteinProphetRunnable(List<String> pepXMLfiles, String fastaFile, String enzyme, Double peptide_prob, 
 			Boolean use_iprophet, String decoyPrefix, Integer threads, String execXinteract, String execProteinProphet,
@@ -71,88 +106,251 @@ public class ProteinProphetRunnable implements Runnable {
 		this.executionDirectory = executionDirectory;
 		this.output = output;
 		this.errorOutput = errorOutput;
+		this.backend = new LocalExecutionBackend();
 		this.protXMLFile = null;
 		this.excelFile = null;
+		this.runXinteract = true;
+		this.runProteinProphet = true;
+		this.resultName = DEFAULT_RESULT_NAME;
+		this.niceLevel = 0;
+		this.cpuTimeLimit = 0;
+		this.memoryLimit = 0;
+		this.peakRSS = 0;
+		this.errorMessage = null;
+		this.aborted = false;
     }
+	
+	
+	/**
+	 * Sets the limits for the started processes.
+	 * 
+	 * @param niceLevel nice level of the processes, 0 for not changing it
+	 * @param cpuTimeLimit maximal CPU time in seconds, 0 for no limit
+	 * @param memoryLimit maximal RSS in MB, 0 for no limit
+	 */
+	public void setResourceLimits(int niceLevel, int cpuTimeLimit, int memoryLimit) {
+		this.niceLevel = niceLevel;
+		this.cpuTimeLimit = cpuTimeLimit;
+		this.memoryLimit = memoryLimit;
+	}
+	
+	
+	/**
+	 * Sets, which of the tools are run. This allows to run xinteract once and
+	 * ProteinProphet several times on its output in the same execution
+	 * directory.
+	 * 
+	 * @param runXinteract whether xinteract is run, otherwise its output must exist already
+	 * @param runProteinProphet whether ProteinProphet is run
+	 */
+	public void setSteps(boolean runXinteract, boolean runProteinProphet) {
+		this.runXinteract = runXinteract;
+		this.runProteinProphet = runProteinProphet;
+	}
+	
+	
+	/**
+	 * Sets the name of the ProteinProphet result files (without extension),
+	 * by default {@link #DEFAULT_RESULT_NAME}.
+	 * 
+	 * @param resultName
+	 */
+	public void setResultName(String resultName) {
+		this.resultName = resultName;
+	}
+	
+	
+	/**
+	 * Sets the backend executing the tools, by default they are executed as
+	 * local processes.
+	 * 
+	 * @param backend
+	 */
+	public void setExecutionBackend(ExecutionBackend backend) {
+		this.backend = backend;
+	}
     
     
 	@Override
 	public void run() {
-		ProcessBuilder processB = new ProcessBuilder(
-				execXinteract,
-				"-D" + fastaFile,
-				"-e" + enzyme,
-				"-nP",
-				"-Ot",
-				"-d" + decoyPrefix,
-				"-THREADS=" + threads);
-		
-		if (use_iprophet) {
-			processB.command().add("-i");
-		}
-		
-		processB.command().add("-N" + executionDirectory + File.separator + "xinteractout.pep.xml");
-		
-		processB.command().addAll(pepXMLfiles);
-		
 		try {
-			BufferedReader stdOut = null;
-			BufferedReader stdError = null;
-			
-			runningProcess = processB.start();
-			
-			// read the output from xinteract
-			if (runningProcess != null) {
-				stdOut = new BufferedReader(new InputStreamReader(runningProcess.getInputStream()));
-				stdError = new BufferedReader(new InputStreamReader(runningProcess.getErrorStream()));
-			}
-			
-			String s;
-			while ((runningProcess != null) && ((s = stdOut.readLine()) != null)) {
-				output.add(s);
-			}
-			while ((runningProcess != null) && ((s = stdError.readLine()) != null)) {
-				errorOutput.add(s);
-			}
-			
-			runningProcess = null;
-			stdOut = null;
-			stdError = null;
-			processB = new ProcessBuilder(
-					execProteinProphet,
-					executionDirectory + File.separator + "xinteractout.pep.xml",
-					executionDirectory + File.separator + "proteinprophet.protXML");
-			
-			if (use_iprophet) {
-				processB.command().add("IPROPHET");
-			}
-
-			processB.command().add("MINPROB" + peptide_prob);
-			processB.command().add("NOPLOT");
-			processB.command().add("EXCELPEPS");
-			
-			runningProcess = processB.start();
-			
-			if (runningProcess != null) {
-				stdOut = new BufferedReader(new InputStreamReader(runningProcess.getInputStream()));
-				stdError = new BufferedReader(new InputStreamReader(runningProcess.getErrorStream()));
-			}
-			
-			// read the output from ProteinProphet
-			while ((runningProcess != null) && ((s = stdOut.readLine()) != null)) {
-				output.add(s);
-			}
-			while ((runningProcess != null) && ((s = stdError.readLine()) != null)) {
-				errorOutput.add(s);
-			}
-			
-			protXMLFile = executionDirectory + File.separator + "proteinprophet.protXML";
-			excelFile = executionDirectory + File.separator + "proteinprophet.xls";
+			backend.execute(this);
 		} catch (IOException e) {
-			ProteinProphetNodeModel.logger.error("Error while executing", e);
+			logger.log(Level.SEVERE, "Error while executing", e);
+			fail((e.getMessage() != null) ? e.getMessage() : e.toString());
+			protXMLFile = null;
+			excelFile = null;
+		} catch (InterruptedException e) {
+			logger.log(Level.SEVERE, "Interrupted while executing", e);
+			fail((e.getMessage() != null) ? e.getMessage() : "Interrupted while executing");
 			protXMLFile = null;
 			excelFile = null;
+			// keep the interrupt for the caller, e.g. the pool of the node
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	
+	/**
+	 * Aborts the run, stopping the running tools.
+	 * Only the first given message is kept.
+	 * 
+	 * @param message the reason for the abort
+	 */
+	public void abort(String message) {
+		fail(message);
+		backend.abort();
+	}
+	
+	
+	/**
+	 * Marks the run as failed, without stopping anything. Only the first
+	 * given message is kept.
+	 * 
+	 * @param message the reason of the failure
+	 */
+	public synchronized void fail(String message) {
+		if (errorMessage == null) {
+			errorMessage = message;
 		}
+		aborted = true;
+	}
+	
+	
+	/**
+	 * returns whether the run was aborted or failed
+	 * @return
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+	
+	
+	/**
+	 * returns the reason, why the run was aborted, or null
+	 * @return
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+	
+	
+	/**
+	 * records the memory usage of a started process
+	 * @param rss the peak RSS of the process in kB
+	 */
+	public synchronized void updatePeakRSS(long rss) {
+		peakRSS = Math.max(peakRSS, rss);
+	}
+	
+	
+	/**
+	 * returns the highest memory usage (RSS) of the started processes in kB
+	 * @return
+	 */
+	public long getPeakRSS() {
+		return peakRSS;
+	}
+	
+	
+	/**
+	 * sets the files created by a successful run
+	 * @param protXMLFile
+	 * @param excelFile
+	 */
+	public void setResultFiles(String protXMLFile, String excelFile) {
+		this.protXMLFile = protXMLFile;
+		this.excelFile = excelFile;
+	}
+	
+	
+	public List<String> getPepXMLFiles() {
+		return pepXMLfiles;
+	}
+	
+	
+	public String getFastaFile() {
+		return fastaFile;
+	}
+	
+	
+	public String getEnzyme() {
+		return enzyme;
+	}
+	
+	
+	public Double getPeptideProbability() {
+		return peptide_prob;
+	}
+	
+	
+	public Boolean getUseIProphet() {
+		return use_iprophet;
+	}
+	
+	
+	public String getDecoyPrefix() {
+		return decoyPrefix;
+	}
+	
+	
+	public Integer getThreads() {
+		return threads;
+	}
+	
+	
+	public String getExecXinteract() {
+		return execXinteract;
+	}
+	
+	
+	public String getExecProteinProphet() {
+		return execProteinProphet;
+	}
+	
+	
+	public String getExecutionDirectory() {
+		return executionDirectory;
+	}
+	
+	
+	public List<String> getOutput() {
+		return output;
+	}
+	
+	
+	public List<String> getErrorOutput() {
+		return errorOutput;
+	}
+	
+	
+	public boolean getRunXinteract() {
+		return runXinteract;
+	}
+	
+	
+	public boolean getRunProteinProphet() {
+		return runProteinProphet;
+	}
+	
+	
+	public String getResultName() {
+		return resultName;
+	}
+	
+	
+	public int getNiceLevel() {
+		return niceLevel;
+	}
+	
+	
+	public int getCpuTimeLimit() {
+		return cpuTimeLimit;
+	}
+	
+	
+	public int getMemoryLimit() {
+		return memoryLimit;
 	}
 	
 	
@@ -0,0 +1,417 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeSettings;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModel;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelDouble;
+import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelPassword;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+
+
+/**
+ * The settings shared by the ProteinProphet nodes, i.e. the settings of
+ * xinteract and ProteinProphet, the resource limits and the worker. The
+ * models are created by the static methods for the node dialogs, the node
+ * models hold an instance, which saves, loads and validates the shared
+ * settings together with the settings of the node and creates the runs.
+ *
+ * @author julianu
+ */
+public class ProteinProphetSettings {
+
+	static final Map<String, String> enzymeNameToShort;
+	static {
+		enzymeNameToShort = new HashMap<String, String>();
+
+		enzymeNameToShort.put("Trypsin", "T");
+		enzymeNameToShort.put("StrictTrypsin", "S");
+		enzymeNameToShort.put("Chymotrypsin", "C");
+		enzymeNameToShort.put("RalphTrypsin", "R");
+		enzymeNameToShort.put("AspN", "A");
+		enzymeNameToShort.put("GluC", "G");
+		enzymeNameToShort.put("GluC Bicarb", "B");
+		enzymeNameToShort.put("CNBr", "M");
+		enzymeNameToShort.put("Trypsin/CNBr", "D");
+		enzymeNameToShort.put("Chymotrypsin/AspN/Trypsin", "3");
+		enzymeNameToShort.put("Elastase", "E");
+		enzymeNameToShort.put("LysC / Trypsin_K (cuts after K not before P)]", "K");
+		enzymeNameToShort.put("LysN (cuts before K)]", "L");
+		enzymeNameToShort.put("LysN Promisc (cuts before KASR)]", "P");
+		enzymeNameToShort.put("Nonspecific or None", "N");
+	}
+
+	static final String CFGKEY_ENZYME = "Enzyme";
+	static final String[] ALLOWED_ENZYMES = enzymeNameToShort.keySet().toArray(new String[1]);
+	static final String DEFAULT_ENZYME = ALLOWED_ENZYMES[0];
+
+	static final String CFGKEY_MINPEPPROB = "min_pep_prob";
+	static final Double DEFAULT_MINPEPPROB = 0.9;
+
+	static final String CFGKEY_CORRECTPROBS = "correct_probabilities";
+	static final Boolean DEFAULT_CORRECTPROBS = false;
+
+	static final String CFGKEY_IPROPHET = "use_iprophet";
+	static final Boolean DEFAULT_IPROPHET = false;
+
+	static final String CFGKEY_DECOYPREFIX = "Decoyprefix";
+	static final String DEFAULT_DECOYPREFIX = "decoy_";
+
+	static final String CFGKEY_DECOYMODE = "decoy_generation";
+	static final String DEFAULT_DECOYMODE = FastaAssembler.DECOYS_NONE;
+
+	static final String CFGKEY_THREADS = "Threads";
+	static final Integer DEFAULT_THREADS = 1;
+
+	static final String CFGKEY_PARALLELRUNS = "parallel_runs";
+	static final Integer DEFAULT_PARALLELRUNS = 2;
+
+	static final String CFGKEY_NICELEVEL = "nice_level";
+	static final Integer DEFAULT_NICELEVEL = 0;
+
+	static final String CFGKEY_CPUTIMELIMIT = "cpu_time_limit";
+	static final Integer DEFAULT_CPUTIMELIMIT = 0;
+
+	static final String CFGKEY_MEMORYLIMIT = "memory_limit";
+	static final Integer DEFAULT_MEMORYLIMIT = 0;
+
+	static final String CFGKEY_WORKERURL = "worker_url";
+	static final String DEFAULT_WORKERURL = "";
+
+	static final String CFGKEY_WORKERTOKEN = "worker_token";
+	static final String DEFAULT_WORKERTOKEN = "";
+	static final String WORKERTOKEN_ENCRYPTION_KEY = "ProteinProphetWorkerToken";
+
+
+	private final SettingsModelString m_enzyme = createEnzymeModel();
+
+	private final SettingsModelDouble m_pepprob = createMinPepProbModel();
+
+	private final SettingsModelBoolean m_correctprobs = createCorrectProbsModel();
+
+	private final SettingsModelBoolean m_iprophet = createIProphetModel();
+
+	private final SettingsModelString m_decoyprefix = createDecoyPrefixModel();
+
+	private final SettingsModelString m_decoymode = createDecoyModeModel();
+
+	private final SettingsModelInteger m_threads = createThreadsModel();
+
+	private final SettingsModelInteger m_nicelevel = createNiceLevelModel();
+
+	private final SettingsModelInteger m_cputimelimit = createCpuTimeLimitModel();
+
+	private final SettingsModelInteger m_memorylimit = createMemoryLimitModel();
+
+	private final SettingsModelString m_workerurl = createWorkerURLModel();
+
+	private final SettingsModelPassword m_workertoken = createWorkerTokenModel();
+
+
+	/** all models, which are saved, loaded and validated */
+	private List<SettingsModel> models;
+
+	/** the keys of the models, which were added after the first release and
+	 * are missing in the settings of older workflows */
+	private Map<SettingsModel, String> optionalKeys;
+
+	/** the default values of the optional models */
+	private NodeSettings optionalDefaults;
+
+	/** the executable for xinteract */
+	private File execXinteract;
+
+	/** the executable for ProteinProphet */
+	private File execProteinProphet;
+
+
+	/**
+	 * @param nodeModels the settings of the node, which are saved, loaded and
+	 *        validated before the shared ones
+	 */
+	public ProteinProphetSettings(SettingsModel... nodeModels) {
+		this(true, nodeModels);
+	}
+
+
+	/**
+	 * @param singleProbability whether the node runs with one minimal peptide
+	 *        probability and iProphet setting, otherwise the node sets them for
+	 *        each run
+	 * @param nodeModels the settings of the node, which are saved, loaded and
+	 *        validated before the shared ones
+	 */
+	public ProteinProphetSettings(boolean singleProbability, SettingsModel... nodeModels) {
+		models = new ArrayList<SettingsModel>(Arrays.asList(nodeModels));
+		models.add(m_enzyme);
+		if (singleProbability) {
+			models.add(m_pepprob);
+		}
+		models.add(m_correctprobs);
+		if (singleProbability) {
+			models.add(m_iprophet);
+		}
+		models.add(m_decoyprefix);
+		models.add(m_decoymode);
+		models.add(m_threads);
+		models.add(m_nicelevel);
+		models.add(m_cputimelimit);
+		models.add(m_memorylimit);
+		models.add(m_workerurl);
+		models.add(m_workertoken);
+
+		optionalKeys = new HashMap<SettingsModel, String>();
+		optionalDefaults = new NodeSettings("optional_defaults");
+		setOptional(m_nicelevel, CFGKEY_NICELEVEL);
+		setOptional(m_cputimelimit, CFGKEY_CPUTIMELIMIT);
+		setOptional(m_memorylimit, CFGKEY_MEMORYLIMIT);
+		setOptional(m_decoymode, CFGKEY_DECOYMODE);
+		setOptional(m_workerurl, CFGKEY_WORKERURL);
+		setOptional(m_workertoken, CFGKEY_WORKERTOKEN);
+
+		execXinteract = null;
+		execProteinProphet = null;
+	}
+
+
+	static SettingsModelString createEnzymeModel() {
+		return new SettingsModelString(CFGKEY_ENZYME, DEFAULT_ENZYME);
+	}
+
+
+	static SettingsModelDouble createMinPepProbModel() {
+		return new SettingsModelDoubleBounded(CFGKEY_MINPEPPROB, DEFAULT_MINPEPPROB, 0.0, 1.0);
+	}
+
+
+	static SettingsModelBoolean createCorrectProbsModel() {
+		return new SettingsModelBoolean(CFGKEY_CORRECTPROBS, DEFAULT_CORRECTPROBS);
+	}
+
+
+	static SettingsModelBoolean createIProphetModel() {
+		return new SettingsModelBoolean(CFGKEY_IPROPHET, DEFAULT_IPROPHET);
+	}
+
+
+	static SettingsModelString createDecoyPrefixModel() {
+		return new SettingsModelString(CFGKEY_DECOYPREFIX, DEFAULT_DECOYPREFIX);
+	}
+
+
+	static SettingsModelString createDecoyModeModel() {
+		return new SettingsModelString(CFGKEY_DECOYMODE, DEFAULT_DECOYMODE);
+	}
+
+
+	static SettingsModelInteger createThreadsModel() {
+		return new SettingsModelInteger(CFGKEY_THREADS, DEFAULT_THREADS);
+	}
+
+
+	static SettingsModelInteger createParallelRunsModel() {
+		return new SettingsModelIntegerBounded(CFGKEY_PARALLELRUNS, DEFAULT_PARALLELRUNS, 1, Integer.MAX_VALUE);
+	}
+
+
+	static SettingsModelInteger createNiceLevelModel() {
+		return new SettingsModelIntegerBounded(CFGKEY_NICELEVEL, DEFAULT_NICELEVEL, 0, 19);
+	}
+
+
+	static SettingsModelInteger createCpuTimeLimitModel() {
+		return new SettingsModelIntegerBounded(CFGKEY_CPUTIMELIMIT, DEFAULT_CPUTIMELIMIT, 0, Integer.MAX_VALUE);
+	}
+
+
+	static SettingsModelInteger createMemoryLimitModel() {
+		return new SettingsModelIntegerBounded(CFGKEY_MEMORYLIMIT, DEFAULT_MEMORYLIMIT, 0, Integer.MAX_VALUE);
+	}
+
+
+	static SettingsModelString createWorkerURLModel() {
+		return new SettingsModelString(CFGKEY_WORKERURL, DEFAULT_WORKERURL);
+	}
+
+
+	static SettingsModelPassword createWorkerTokenModel() {
+		return new SettingsModelPassword(CFGKEY_WORKERTOKEN, WORKERTOKEN_ENCRYPTION_KEY, DEFAULT_WORKERTOKEN);
+	}
+
+
+	/**
+	 * Marks a model as optional, i.e. it is loaded with its current value as
+	 * default, if its key is missing in the loaded settings, and it is not
+	 * validated then. Used for the settings added after the first release, so
+	 * the nodes of older workflows still load.
+	 *
+	 * @param model
+	 * @param key the config key of the model
+	 */
+	public void setOptional(SettingsModel model, String key) {
+		optionalKeys.put(model, key);
+		model.saveSettingsTo(optionalDefaults);
+	}
+
+
+	/**
+	 * returns whether the model is optional and missing in the settings
+	 * @return
+	 */
+	private boolean isMissing(SettingsModel model, NodeSettingsRO settings) {
+		String key = optionalKeys.get(model);
+		return (key != null) && !settings.containsKey(key);
+	}
+
+
+	public void saveSettingsTo(final NodeSettingsWO settings) {
+		for (SettingsModel model : models) {
+			model.saveSettingsTo(settings);
+		}
+	}
+
+
+	public void loadSettingsFrom(final NodeSettingsRO settings) throws InvalidSettingsException {
+		for (SettingsModel model : models) {
+			if (isMissing(model, settings)) {
+				model.loadSettingsFrom(optionalDefaults);
+			} else {
+				model.loadSettingsFrom(settings);
+			}
+		}
+	}
+
+
+	public void validateSettings(final NodeSettingsRO settings) throws InvalidSettingsException {
+		for (SettingsModel model : models) {
+			if (!isMissing(model, settings)) {
+				model.validateSettings(settings);
+			}
+		}
+	}
+
+
+	/**
+	 * Checks the settings and looks for the executables, called when the node
+	 * is configured.
+	 *
+	 * @throws InvalidSettingsException
+	 */
+	public void configure() throws InvalidSettingsException {
+		FastaAssembler.checkSettings(m_decoymode.getStringValue(), m_decoyprefix.getStringValue());
+
+		execXinteract = ProteinProphetNodeModel.findExecutable("xinteract");
+		execProteinProphet = ProteinProphetNodeModel.findExecutable("ProteinProphet");
+
+		if ((execXinteract == null) || (execProteinProphet == null)) {
+			ProteinProphetNodeModel.logger.error("could not find executables");
+		}
+	}
+
+
+	/**
+	 * Assembles the FASTA database from the given files with the decoy
+	 * settings.
+	 *
+	 * @param fastaFiles
+	 * @return the path to the assembled database
+	 * @throws IOException
+	 */
+	public String assembleDatabase(List<String> fastaFiles) throws IOException {
+		return new FastaAssembler(fastaFiles, m_decoymode.getStringValue(),
+				m_decoyprefix.getStringValue()).assemble();
+	}
+
+
+	/**
+	 * Checks and corrects the pepXML file at the given index of the list and
+	 * replaces it by the corrected copy in the given directory.
+	 *
+	 * @param inputFiles
+	 * @param index
+	 * @param dir
+	 * @return the statistics of the PSMs in the file
+	 * @throws IOException
+	 */
+	public PSMStatistics checkInputFile(List<String> inputFiles, int index, File dir) throws IOException {
+		String file = inputFiles.get(index);
+		PSMStatistics statistics = new PSMStatistics(new File(file).getName(),
+				m_decoyprefix.getStringValue(), m_correctprobs.getBooleanValue());
+
+		inputFiles.set(index, ProteinProphetNodeModel.checkInputFile(file, getEnzymeShort(),
+				m_correctprobs.getBooleanValue(), dir, statistics));
+		return statistics;
+	}
+
+
+	/**
+	 * Creates a run with the given files and the shared settings. If a worker
+	 * is set, the run is executed on it.
+	 *
+	 * @param inputFiles
+	 * @param fastaFile
+	 * @param probability the minimal peptide probability
+	 * @param iProphet whether iProphet is used
+	 * @param dir the working directory of the run
+	 * @param output
+	 * @param errorOutput
+	 * @return
+	 */
+	public ProteinProphetRunnable createRunner(List<String> inputFiles, String fastaFile, Double probability,
+			Boolean iProphet, File dir, List<String> output, List<String> errorOutput) {
+		ProteinProphetRunnable pprunner =
+				new ProteinProphetRunnable(inputFiles, fastaFile, getEnzymeShort(), probability, iProphet,
+						m_decoyprefix.getStringValue(), m_threads.getIntValue(), execXinteract.getAbsolutePath(),
+						execProteinProphet.getAbsolutePath(), dir.getAbsolutePath(),
+						output, errorOutput);
+		pprunner.setResourceLimits(m_nicelevel.getIntValue(), m_cputimelimit.getIntValue(),
+				m_memorylimit.getIntValue());
+		if (isRemote()) {
+			// run the tools on the worker instead of the local machine
+			pprunner.setExecutionBackend(new RemoteExecutionBackend(m_workerurl.getStringValue().trim(),
+					m_workertoken.getStringValue()));
+		}
+		return pprunner;
+	}
+
+
+	/**
+	 * returns whether the tools are run on a worker
+	 * @return
+	 */
+	public boolean isRemote() {
+		return !m_workerurl.getStringValue().trim().isEmpty();
+	}
+
+
+	/**
+	 * returns the short name of the enzyme, as used in the pepXML
+	 * @return
+	 */
+	public String getEnzymeShort() {
+		return enzymeNameToShort.get(m_enzyme.getStringValue());
+	}
+
+
+	public Double getMinPepProb() {
+		return m_pepprob.getDoubleValue();
+	}
+
+
+	public Boolean getUseIProphet() {
+		return m_iprophet.getBooleanValue();
+	}
+}
@@ -0,0 +1,85 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import org.knime.core.node.defaultnodesettings.DefaultNodeSettingsPane;
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
+import org.knime.core.node.defaultnodesettings.DialogComponentPasswordField;
+import org.knime.core.node.defaultnodesettings.DialogComponentString;
+import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+
+/**
+ * <code>NodeDialog</code> for the "ProteinProphet Sweep" Node.
+ * KNIME node to run ProteinProphet with several minimal peptide
+ * probabilities on one xinteract result
+ *
+ * @author julianu
+ */
+public class ProteinProphetSweepNodeDialog extends DefaultNodeSettingsPane {
+	/**
+	 * New pane for configuring ProteinProphet sweep node dialog.
+	 */
+	protected ProteinProphetSweepNodeDialog() {
+		super();
+		
+		addDialogComponent(new DialogComponentString(
+				new SettingsModelString(ProteinProphetSweepNodeModel.CFGKEY_MINPEPPROBS, ProteinProphetSweepNodeModel.DEFAULT_MINPEPPROBS),
+				"minimal peptide probabilities:", true, 20));
+		
+		addDialogComponent(new DialogComponentStringSelection(
+				new SettingsModelString(ProteinProphetSweepNodeModel.CFGKEY_IPROPHETMODE, ProteinProphetSweepNodeModel.DEFAULT_IPROPHETMODE),
+				"iProphet:", ProteinProphetSweepNodeModel.IPROPHET_MODES));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSweepNodeModel.createMinProtProbModel(),
+				"minimal protein probability (summary):", 0.05));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createParallelRunsModel(),
+				"Parallel runs:", 1));
+		
+		addDialogComponent(new DialogComponentStringSelection(
+				ProteinProphetSettings.createEnzymeModel(),
+				"Enzyme:", ProteinProphetSettings.ALLOWED_ENZYMES));
+		
+		addDialogComponent(new DialogComponentBoolean(
+				ProteinProphetSettings.createCorrectProbsModel(),
+				"correct probability from error probability"));
+		
+		addDialogComponent(new DialogComponentString(
+				ProteinProphetSettings.createDecoyPrefixModel(),
+				"Decoy prefix:", true, 10));
+		
+		addDialogComponent(new DialogComponentStringSelection(
+				ProteinProphetSettings.createDecoyModeModel(),
+				"Generate decoys:", FastaAssembler.DECOY_MODES));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createThreadsModel(),
+				"Threads per run:", 1));
+		
+		createNewTab("Resource Limits");
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createNiceLevelModel(),
+				"nice level (0 = unchanged):", 1));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createCpuTimeLimitModel(),
+				"CPU time limit per process in s (0 = unlimited):", 60));
+		
+		addDialogComponent(new DialogComponentNumber(
+				ProteinProphetSettings.createMemoryLimitModel(),
+				"memory limit (RSS) per process in MB (0 = unlimited):", 1024));
+		
+		createNewTab("Execution");
+		
+		addDialogComponent(new DialogComponentString(
+				ProteinProphetSettings.createWorkerURLModel(),
+				"Worker URL (empty = local):", false, 30));
+		
+		addDialogComponent(new DialogComponentPasswordField(
+				ProteinProphetSettings.createWorkerTokenModel(),
+				"Worker token:", 30));
+	}
+}
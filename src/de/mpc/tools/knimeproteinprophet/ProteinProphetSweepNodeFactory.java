@@ -0,0 +1,65 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import org.knime.base.node.util.exttool.ExtToolStderrNodeView;
+import org.knime.base.node.util.exttool.ExtToolStdoutNodeView;
+import org.knime.core.node.NodeDialogPane;
+import org.knime.core.node.NodeFactory;
+import org.knime.core.node.NodeView;
+
+/**
+ * <code>NodeFactory</code> for the "ProteinProphet Sweep" Node.
+ * KNIME node to run ProteinProphet with several minimal peptide
+ * probabilities on one xinteract result
+ *
+ * @author julianu
+ */
+public class ProteinProphetSweepNodeFactory 
+        extends NodeFactory<ProteinProphetSweepNodeModel> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ProteinProphetSweepNodeModel createNodeModel() {
+        return new ProteinProphetSweepNodeModel();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNrNodeViews() {
+        return 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NodeView<ProteinProphetSweepNodeModel> createNodeView(final int viewIndex,
+            final ProteinProphetSweepNodeModel nodeModel) {
+    	if (viewIndex == 0) {
+    		return new ExtToolStdoutNodeView<ProteinProphetSweepNodeModel>(nodeModel);
+    	} else if (viewIndex == 1) {
+    		return new ExtToolStderrNodeView<ProteinProphetSweepNodeModel>(nodeModel);
+    	}
+    	return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasDialog() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NodeDialogPane createNodeDialogPane() {
+        return new ProteinProphetSweepNodeDialog();
+    }
+
+}
@@ -0,0 +1,447 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.knime.base.node.util.exttool.ExtToolOutputNodeModel;
+import org.knime.core.data.DataColumnSpec;
+import org.knime.core.data.DataColumnSpecCreator;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.RowKey;
+import org.knime.core.data.def.BooleanCell;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.DoubleCell;
+import org.knime.core.data.def.IntCell;
+import org.knime.core.data.def.StringCell;
+import org.knime.core.data.uri.IURIPortObject;
+import org.knime.core.data.uri.URIContent;
+import org.knime.core.data.uri.URIPortObject;
+import org.knime.core.data.uri.URIPortObjectSpec;
+import org.knime.core.node.BufferedDataContainer;
+import org.knime.core.node.BufferedDataTable;
+import org.knime.core.node.ExecutionContext;
+import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.NodeLogger;
+import org.knime.core.node.NodeSettingsRO;
+import org.knime.core.node.NodeSettingsWO;
+import org.knime.core.node.defaultnodesettings.SettingsModelDouble;
+import org.knime.core.node.defaultnodesettings.SettingsModelDoubleBounded;
+import org.knime.core.node.defaultnodesettings.SettingsModelInteger;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.core.node.port.PortObject;
+import org.knime.core.node.port.PortObjectSpec;
+import org.knime.core.node.port.PortType;
+import org.knime.core.node.streamable.BufferedDataTableRowOutput;
+
+
+/**
+ * This is the model implementation of the ProteinProphet sweep node.
+ * KNIME node to run xinteract once and ProteinProphet with several minimal
+ * peptide probabilities (and optionally with and without iProphet) on its
+ * output.
+ *
+ * @author julianu
+ */
+public class ProteinProphetSweepNodeModel extends ExtToolOutputNodeModel {
+
+    // the logger instance
+    protected static final NodeLogger logger = NodeLogger
+            .getLogger(ProteinProphetSweepNodeModel.class);
+
+
+    static final String CFGKEY_MINPEPPROBS = "min_pep_probs";
+    static final String DEFAULT_MINPEPPROBS = "0.5, 0.7, 0.9, 0.95";
+
+    private final SettingsModelString m_pepprobs =
+            new SettingsModelString(ProteinProphetSweepNodeModel.CFGKEY_MINPEPPROBS, ProteinProphetSweepNodeModel.DEFAULT_MINPEPPROBS);
+
+
+    static final String IPROPHET_OFF = "without iProphet";
+    static final String IPROPHET_ON = "with iProphet";
+    static final String IPROPHET_BOTH = "with and without iProphet";
+    static final String[] IPROPHET_MODES = new String[]{IPROPHET_OFF, IPROPHET_ON, IPROPHET_BOTH};
+
+    static final String CFGKEY_IPROPHETMODE = "iprophet_sweep";
+    static final String DEFAULT_IPROPHETMODE = IPROPHET_OFF;
+
+    private final SettingsModelString m_iprophetmode =
+            new SettingsModelString(ProteinProphetSweepNodeModel.CFGKEY_IPROPHETMODE, ProteinProphetSweepNodeModel.DEFAULT_IPROPHETMODE);
+
+
+    static final String CFGKEY_MINPROTPROB = "min_protein_prob";
+    static final Double DEFAULT_MINPROTPROB = 0.9;
+
+    private final SettingsModelDouble m_protprob = createMinProtProbModel();
+
+
+    private final SettingsModelInteger m_parallelruns = ProteinProphetSettings.createParallelRunsModel();
+
+
+    /** the settings of xinteract, ProteinProphet and the execution */
+    private final ProteinProphetSettings m_settings =
+            new ProteinProphetSettings(false, m_pepprobs, m_iprophetmode, m_protprob, m_parallelruns);
+
+
+    /**
+     * Constructor for the node model.
+     */
+    protected ProteinProphetSweepNodeModel() {
+        // two incoming URI ports, two outgoing URI ports, the PSM statistics, the columnar export and the summary table
+        super(new PortType[]{IURIPortObject.TYPE, IURIPortObject.TYPE},
+                new PortType[]{IURIPortObject.TYPE, IURIPortObject.TYPE, BufferedDataTable.TYPE,
+                        IURIPortObject.TYPE, BufferedDataTable.TYPE});
+    }
+
+
+    static SettingsModelDouble createMinProtProbModel() {
+        return new SettingsModelDoubleBounded(CFGKEY_MINPROTPROB, DEFAULT_MINPROTPROB, 0.0, 1.0);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PortObject[] execute(PortObject[] inObjects, ExecutionContext execContext)
+            throws Exception {
+        List<Double> probabilities = parseProbabilities(m_pepprobs.getStringValue());
+        List<Boolean> iProphetSettings = new ArrayList<Boolean>(2);
+        if (!IPROPHET_ON.equals(m_iprophetmode.getStringValue())) {
+            iProphetSettings.add(false);
+        }
+        if (!IPROPHET_OFF.equals(m_iprophetmode.getStringValue())) {
+            iProphetSettings.add(true);
+        }
+
+        // create a working directory
+        File dir = ProteinProphetNodeModel.createWorkingDirectory("PPsweep");
+
+        // get the input pepXML files
+        IURIPortObject filesPort = (IURIPortObject) inObjects[0];
+        List<URIContent> uris = filesPort.getURIContents();
+        List<String> inputFiles = new ArrayList<String>(uris.size());
+        for (URIContent uric : uris) {
+            URI uri = uric.getURI();
+            inputFiles.add(new File(uri).getAbsolutePath());
+        }
+
+        // check the input files, whether it has the enzyme in the "<msms_run_summary>" tag
+        BufferedDataTableRowOutput statisticsOutput = new BufferedDataTableRowOutput(
+                execContext.createDataContainer(PSMStatistics.createTableSpec()));
+        int statisticsRowNr = 0;
+        for (int i = 0; i < inputFiles.size(); i++) {
+            PSMStatistics statistics = m_settings.checkInputFile(inputFiles, i, dir);
+            statisticsRowNr = statistics.addRowsTo(statisticsOutput, statisticsRowNr);
+        }
+        statisticsOutput.close();
+
+        // get the input FASTA files and assemble the database
+        filesPort = (IURIPortObject) inObjects[1];
+        List<String> fastaFiles = new ArrayList<String>();
+        for (URIContent uric : filesPort.getURIContents()) {
+            URI uri = uric.getURI();
+            fastaFiles.add(new File(uri).getAbsolutePath());
+        }
+
+        execContext.setMessage("assembling FASTA database");
+        String fastaFile = m_settings.assembleDatabase(fastaFiles);
+
+
+        LinkedList<String> externalOutput = new LinkedList<String>();
+        LinkedList<String> externalErrorOutput = new LinkedList<String>();
+
+        // the output of xinteract stays on the worker, so each setting runs as complete job there
+        boolean sharedXinteract = !m_settings.isRemote();
+        long xinteractPeakRSS = 0;
+        if (sharedXinteract) {
+            // run xinteract once, with iProphet if any of the settings needs it
+            execContext.setMessage("running xinteract");
+            InferenceRun xinteractRun = new InferenceRun("xinteract", m_settings, inputFiles, fastaFile,
+                    probabilities.get(0), iProphetSettings.contains(true), dir);
+            xinteractRun.setSteps(true, false);
+            ParallelRunner.run(Collections.singletonList(xinteractRun), 1, execContext, "runs");
+            xinteractRun.appendOutputs(externalOutput, externalErrorOutput);
+            xinteractPeakRSS = xinteractRun.getPeakRSS();
+
+            File xinteractFile = new File(dir, ProteinProphetRunnable.XINTERACT_OUTPUT);
+            if (!xinteractRun.isSuccessful() || !Files.exists(xinteractFile.toPath(), new LinkOption[]{})) {
+                setFailedExternalOutput(externalOutput);
+                setFailedExternalErrorOutput(externalErrorOutput);
+                if (xinteractRun.getErrorMessage() != null) {
+                    throw new Exception(xinteractRun.getErrorMessage());
+                }
+                throw new Exception("Error while executing xinteract.");
+            }
+        }
+
+
+        // run ProteinProphet for all settings in parallel
+        List<InferenceRun> runs = new ArrayList<InferenceRun>();
+        for (Boolean iProphet : iProphetSettings) {
+            for (Double probability : probabilities) {
+                String resultName = getResultName(probability, iProphet);
+                InferenceRun run = new InferenceRun(resultName, m_settings, inputFiles, fastaFile,
+                        probability, iProphet, dir);
+                run.setSteps(!sharedXinteract, true);
+                run.setResultName(resultName);
+                runs.add(run);
+            }
+        }
+
+        ParallelRunner.run(runs, m_parallelruns.getIntValue(), execContext, "ProteinProphet runs");
+
+
+        // collect the results in the order of the settings
+        List<URIContent> outProtXML = new ArrayList<URIContent>();
+        List<URIContent> outXLS = new ArrayList<URIContent>();
+        List<URIContent> outColumnar = new ArrayList<URIContent>();
+        List<String> failedRuns = new ArrayList<String>();
+
+        BufferedDataContainer container = execContext.createDataContainer(createSummarySpec(m_protprob.getDoubleValue()));
+        for (int i = 0; i < runs.size(); i++) {
+            InferenceRun run = runs.get(i);
+            run.appendOutputs(externalOutput, externalErrorOutput);
+
+            if (!run.isSuccessful()) {
+                failedRuns.add(run.getFailureDescription());
+                continue;
+            }
+
+            String protXMLFile = run.getProtXMLFile();
+            outProtXML.add(new URIContent(new File(protXMLFile).toURI(), "protXML"));
+            outXLS.add(new URIContent(new File(run.getExcelFile()).toURI(), "xls"));
+            outColumnar.add(new URIContent(new File(run.getColumnarFile()).toURI(),
+                    ProtXMLColumnarExporter.FILE_EXTENSION));
+
+            int[] counts = countProteins(protXMLFile, m_protprob.getDoubleValue());
+            DataRow row = new DefaultRow(RowKey.createRowKey(i),
+                    new DoubleCell(run.getPeptideProbability()),
+                    run.getUseIProphet() ? BooleanCell.TRUE : BooleanCell.FALSE,
+                    new IntCell(counts[0]),
+                    new IntCell(counts[1]),
+                    new StringCell(protXMLFile),
+                    new StringCell(run.getExcelFile()),
+                    new StringCell(run.getColumnarFile()),
+                    new IntCell((int) (Math.max(run.getPeakRSS(), xinteractPeakRSS) / 1024)));
+            container.addRowToTable(row);
+        }
+        container.close();
+
+        if (!failedRuns.isEmpty()) {
+            setFailedExternalOutput(externalOutput);
+            setFailedExternalErrorOutput(externalErrorOutput);
+            throw new Exception("Error while executing ProteinProphet for the settings " + failedRuns + ".");
+        }
+
+        setExternalOutput(externalOutput);
+        setExternalErrorOutput(externalErrorOutput);
+
+        return new PortObject[]{new URIPortObject(outProtXML), new URIPortObject(outXLS),
+                statisticsOutput.getDataTable(), new URIPortObject(outColumnar), container.getTable()};
+    }
+
+
+    /**
+     * Returns the name of the result files for the given setting.
+     */
+    private static String getResultName(Double probability, Boolean iProphet) {
+        return ProteinProphetRunnable.DEFAULT_RESULT_NAME + "_minprob" + probability
+                + (iProphet ? "_iprophet" : "");
+    }
+
+
+    /**
+     * Parses the list of minimal peptide probabilities, separated by commas,
+     * semicolons or whitespace. Duplicate values are used only once.
+     *
+     * @param probabilitiesString
+     * @return
+     * @throws InvalidSettingsException if the list is empty or a value is no probability
+     */
+    static List<Double> parseProbabilities(String probabilitiesString) throws InvalidSettingsException {
+        Set<Double> probabilities = new LinkedHashSet<Double>();
+
+        for (String value : probabilitiesString.trim().split("[,;\\s]+")) {
+            if (value.isEmpty()) {
+                continue;
+            }
+
+            Double probability;
+            try {
+                probability = Double.valueOf(value);
+            } catch (NumberFormatException e) {
+                throw new InvalidSettingsException("'" + value + "' is not a valid peptide probability.");
+            }
+
+            if ((probability < 0.0) || (probability > 1.0)) {
+                throw new InvalidSettingsException("The peptide probability " + value + " is not between 0 and 1.");
+            }
+            probabilities.add(probability);
+        }
+
+        if (probabilities.isEmpty()) {
+            throw new InvalidSettingsException("Please give at least one minimal peptide probability.");
+        }
+
+        return new ArrayList<Double>(probabilities);
+    }
+
+
+    /**
+     * Counts the protein groups and proteins in the protXML file with at least
+     * the given probability. Only the reported proteins are counted, not the
+     * indistinguishable ones.
+     *
+     * @param protXMLFile
+     * @param minProbability the minimal probability of the counted groups and proteins
+     * @return the number of protein groups and proteins
+     * @throws IOException
+     */
+    static int[] countProteins(String protXMLFile, double minProbability) throws IOException {
+        int[] counts = new int[]{0, 0};
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        InputStream is = new BufferedInputStream(new FileInputStream(protXMLFile));
+
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(is);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+
+                    int index;
+                    if ("protein_group".equals(reader.getLocalName())) {
+                        index = 0;
+                    } else if ("protein".equals(reader.getLocalName())) {
+                        index = 1;
+                    } else {
+                        continue;
+                    }
+
+                    String probability = reader.getAttributeValue(null, "probability");
+                    try {
+                        if ((probability != null) && (Double.parseDouble(probability) >= minProbability)) {
+                            counts[index]++;
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid probability '" + probability + "' in " + protXMLFile, e);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Error while parsing " + protXMLFile, e);
+        } finally {
+            is.close();
+        }
+
+        return counts;
+    }
+
+
+    /**
+     * Creates the spec of the summary table.
+     *
+     * @param minProbability the minimal probability of the counted protein
+     *        groups and proteins, which is named in their columns
+     * @return
+     */
+    private static DataTableSpec createSummarySpec(double minProbability) {
+        DataColumnSpec[] columns = new DataColumnSpec[8];
+        columns[0] = new DataColumnSpecCreator("min peptide probability", DoubleCell.TYPE).createSpec();
+        columns[1] = new DataColumnSpecCreator("iProphet", BooleanCell.TYPE).createSpec();
+        columns[2] = new DataColumnSpecCreator("protein groups (p >= " + minProbability + ")",
+                IntCell.TYPE).createSpec();
+        columns[3] = new DataColumnSpecCreator("proteins (p >= " + minProbability + ")",
+                IntCell.TYPE).createSpec();
+        columns[4] = new DataColumnSpecCreator("protXML", StringCell.TYPE).createSpec();
+        columns[5] = new DataColumnSpecCreator("xls", StringCell.TYPE).createSpec();
+        columns[6] = new DataColumnSpecCreator("columnar", StringCell.TYPE).createSpec();
+        columns[7] = new DataColumnSpecCreator("peak RSS (MB)", IntCell.TYPE).createSpec();
+
+        return new DataTableSpec(columns);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void reset() {
+        super.reset();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected PortObjectSpec[] configure(final PortObjectSpec[] inSpecs)
+            throws InvalidSettingsException {
+
+        parseProbabilities(m_pepprobs.getStringValue());
+
+        // check the settings and the executables
+        m_settings.configure();
+
+        PortObjectSpec[] out_spec = new PortObjectSpec[5];
+        out_spec[0] = new URIPortObjectSpec(new String[]{"protxml", "protXML", "XML"});
+        out_spec[1] = new URIPortObjectSpec(new String[]{"xls"});
+        out_spec[2] = PSMStatistics.createTableSpec();
+        out_spec[3] = new URIPortObjectSpec(new String[]{ProtXMLColumnarExporter.FILE_EXTENSION});
+        out_spec[4] = createSummarySpec(m_protprob.getDoubleValue());
+
+        return out_spec;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void saveSettingsTo(final NodeSettingsWO settings) {
+        m_settings.saveSettingsTo(settings);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void loadValidatedSettingsFrom(final NodeSettingsRO settings)
+            throws InvalidSettingsException {
+        m_settings.loadSettingsFrom(settings);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void validateSettings(final NodeSettingsRO settings)
+            throws InvalidSettingsException {
+        m_settings.validateSettings(settings);
+    }
+}
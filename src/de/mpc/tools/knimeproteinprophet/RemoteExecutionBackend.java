@@ -0,0 +1,355 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Executes xinteract and ProteinProphet on a ProteinProphetWorker (see the
+ * directory "worker" of the project), a standalone service outside of KNIME.
+ * The input files are streamed to the worker as ZIP archive in the body of
+ * the request, the worker answers with a ZIP archive containing the output
+ * of the tools and the created files.
+ *
+ * @author julianu
+ */
+public class RemoteExecutionBackend implements ExecutionBackend {
+
+	/** path of the request running a job */
+	static final String RUN_PATH = "/run";
+
+	/** path of the request aborting a job */
+	static final String ABORT_PATH = "/abort";
+
+	/** header and query parameter identifying the job */
+	static final String JOB_ID = "job";
+
+	/** timeout in ms for connecting to the worker */
+	static final int CONNECT_TIMEOUT = 30000;
+
+	/**
+	 * timeout in ms for connecting and answering an abort request, which
+	 * blocks the cancelling thread. The job request has no read timeout, as
+	 * the job may wait for a free slot and run for hours.
+	 */
+	static final int ABORT_TIMEOUT = 5000;
+
+	/** header with the token shared by the worker and its clients */
+	static final String TOKEN_HEADER = "X-Worker-Token";
+
+	/** entry with the settings of the job */
+	static final String JOB_ENTRY = "job.properties";
+
+	/** directory of the pepXML entries */
+	static final String PEPXML_ENTRY = "pepxml/";
+
+	/** directory of the FASTA entry */
+	static final String FASTA_ENTRY = "fasta/";
+
+	/** entry with the error message and resource usage of the job */
+	static final String RESULT_ENTRY = "result.properties";
+
+	/** entry with the STD output */
+	static final String OUTPUT_ENTRY = "output.txt";
+
+	/** entry with the STDERR output */
+	static final String ERROR_OUTPUT_ENTRY = "error.txt";
+
+	/** the protXML result entry */
+	static final String PROTXML_ENTRY = "proteinprophet.protXML";
+
+	/** the tab separated result entry */
+	static final String EXCEL_ENTRY = "proteinprophet.xls";
+
+	static final String KEY_ENZYME = "enzyme";
+	static final String KEY_MINPROB = "minprob";
+	static final String KEY_IPROPHET = "iprophet";
+	static final String KEY_DECOYPREFIX = "decoyprefix";
+	static final String KEY_THREADS = "threads";
+	static final String KEY_NICELEVEL = "nicelevel";
+	static final String KEY_CPUTIMELIMIT = "cputimelimit";
+	static final String KEY_MEMORYLIMIT = "memorylimit";
+	static final String KEY_ERRORMESSAGE = "errormessage";
+	static final String KEY_PEAKRSS = "peakrss";
+
+	/** the logger, forwarded to the KNIME log inside the plugin */
+	private static final Logger logger = Logger.getLogger(RemoteExecutionBackend.class.getName());
+
+
+	/** the base URL of the worker */
+	private String workerURL;
+
+	/** the token sent to the worker, null if none is needed */
+	private String token;
+
+	/** the ID of the job on the worker */
+	private String jobId;
+
+	/** the connection of the running job */
+	private HttpURLConnection connection;
+
+
+	/**
+	 * @param workerURL the base URL of the worker
+	 * @param token the token shared with the worker, null or empty if the worker needs none
+	 */
+	public RemoteExecutionBackend(String workerURL, String token) {
+		this.workerURL = workerURL.endsWith("/") ? workerURL.substring(0, workerURL.length() - 1) : workerURL;
+		this.token = ((token == null) || token.isEmpty()) ? null : token;
+		this.jobId = UUID.randomUUID().toString();
+		this.connection = null;
+	}
+
+
+	@Override
+	public void execute(ProteinProphetRunnable job) throws IOException, InterruptedException {
+		if (!job.getRunXinteract() || !job.getRunProteinProphet()) {
+			// the output of xinteract stays on the worker, so it cannot be shared between jobs
+			job.fail("Only complete runs of xinteract and ProteinProphet can be executed on a worker.");
+			return;
+		}
+
+		synchronized (this) {
+			if (job.isAborted()) {
+				return;
+			}
+			connection = (HttpURLConnection) new URL(workerURL + RUN_PATH).openConnection();
+		}
+
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT);
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setChunkedStreamingMode(65536);
+			connection.setRequestProperty("Content-Type", "application/zip");
+			connection.setRequestProperty(JOB_ID, jobId);
+			if (token != null) {
+				connection.setRequestProperty(TOKEN_HEADER, token);
+			}
+
+			OutputStream os = connection.getOutputStream();
+			try {
+				writeRequest(job, os);
+			} finally {
+				os.close();
+			}
+
+			if (connection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+				throw new IOException("the worker rejected the worker token");
+			} else if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException("the worker answered with "
+						+ connection.getResponseCode() + ": " + readError(connection));
+			}
+
+			InputStream is = connection.getInputStream();
+			try {
+				readResponse(job, is);
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			if (!job.isAborted()) {
+				job.fail("Could not run the job on the worker " + workerURL + ": " + e.getMessage());
+				throw e;
+			}
+			// the connection was closed by aborting the job
+		} finally {
+			synchronized (this) {
+				connection.disconnect();
+				connection = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Writes the settings and input files of the job as ZIP archive.
+	 */
+	private static void writeRequest(ProteinProphetRunnable job, OutputStream os) throws IOException {
+		ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os));
+
+		Properties settings = new Properties();
+		settings.setProperty(KEY_ENZYME, job.getEnzyme());
+		settings.setProperty(KEY_MINPROB, job.getPeptideProbability().toString());
+		settings.setProperty(KEY_IPROPHET, job.getUseIProphet().toString());
+		settings.setProperty(KEY_DECOYPREFIX, job.getDecoyPrefix());
+		settings.setProperty(KEY_THREADS, job.getThreads().toString());
+		settings.setProperty(KEY_NICELEVEL, Integer.toString(job.getNiceLevel()));
+		settings.setProperty(KEY_CPUTIMELIMIT, Integer.toString(job.getCpuTimeLimit()));
+		settings.setProperty(KEY_MEMORYLIMIT, Integer.toString(job.getMemoryLimit()));
+
+		zos.putNextEntry(new ZipEntry(JOB_ENTRY));
+		settings.store(zos, null);
+		zos.closeEntry();
+
+		// the index keeps the order and avoids clashes of equally named files
+		List<String> pepXMLFiles = job.getPepXMLFiles();
+		for (int i = 0; i < pepXMLFiles.size(); i++) {
+			File file = new File(pepXMLFiles.get(i));
+			writeFileEntry(zos, PEPXML_ENTRY + i + "_" + file.getName(), file);
+		}
+
+		File fastaFile = new File(job.getFastaFile());
+		writeFileEntry(zos, FASTA_ENTRY + fastaFile.getName(), fastaFile);
+
+		zos.finish();
+		zos.flush();
+	}
+
+
+	/**
+	 * Reads the output and result files of the job from the ZIP archive.
+	 */
+	private static void readResponse(ProteinProphetRunnable job, InputStream is) throws IOException {
+		ZipInputStream zis = new ZipInputStream(is);
+		Properties result = new Properties();
+		String protXMLFile = null;
+		String excelFile = null;
+
+		ZipEntry entry;
+		while ((entry = zis.getNextEntry()) != null) {
+			String name = entry.getName();
+
+			if (RESULT_ENTRY.equals(name)) {
+				result.load(zis);
+			} else if (OUTPUT_ENTRY.equals(name)) {
+				readLines(zis, job.getOutput());
+			} else if (ERROR_OUTPUT_ENTRY.equals(name)) {
+				readLines(zis, job.getErrorOutput());
+			} else if (PROTXML_ENTRY.equals(name) || EXCEL_ENTRY.equals(name)) {
+				File file = new File(job.getExecutionDirectory(),
+						job.getResultName() + name.substring(name.lastIndexOf('.')));
+				copyStream(zis, file);
+				if (PROTXML_ENTRY.equals(name)) {
+					protXMLFile = file.getAbsolutePath();
+				} else {
+					excelFile = file.getAbsolutePath();
+				}
+			}
+			zis.closeEntry();
+		}
+
+		if (result.getProperty(KEY_PEAKRSS) != null) {
+			job.updatePeakRSS(Long.parseLong(result.getProperty(KEY_PEAKRSS)));
+		}
+
+		if (result.getProperty(KEY_ERRORMESSAGE) != null) {
+			job.fail(result.getProperty(KEY_ERRORMESSAGE));
+		} else if ((protXMLFile != null) && (excelFile != null)) {
+			job.setResultFiles(protXMLFile, excelFile);
+		}
+	}
+
+
+	/**
+	 * Aborts the job on the worker and closes the connection.
+	 */
+	@Override
+	public void abort() {
+		synchronized (this) {
+			if (connection == null) {
+				return;
+			}
+		}
+
+		try {
+			HttpURLConnection abortConnection = (HttpURLConnection) new URL(workerURL + ABORT_PATH
+					+ "?" + JOB_ID + "=" + URLEncoder.encode(jobId, "UTF-8")).openConnection();
+			abortConnection.setConnectTimeout(ABORT_TIMEOUT);
+			abortConnection.setReadTimeout(ABORT_TIMEOUT);
+			abortConnection.setRequestMethod("POST");
+			if (token != null) {
+				abortConnection.setRequestProperty(TOKEN_HEADER, token);
+			}
+			abortConnection.getResponseCode();
+			abortConnection.disconnect();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not abort the job on the worker " + workerURL, e);
+		}
+
+		synchronized (this) {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+
+	static void writeFileEntry(ZipOutputStream zos, String entryName, File file) throws IOException {
+		zos.putNextEntry(new ZipEntry(entryName));
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				zos.write(buffer, 0, read);
+			}
+		} finally {
+			is.close();
+		}
+		zos.closeEntry();
+	}
+
+
+	static void copyStream(InputStream is, File file) throws IOException {
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				os.write(buffer, 0, read);
+			}
+		} finally {
+			os.close();
+		}
+	}
+
+
+	private static void readLines(InputStream is, List<String> lines) throws IOException {
+		// the stream of the ZIP entry must not be closed here
+		BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+		String line;
+		while ((line = br.readLine()) != null) {
+			lines.add(line);
+		}
+	}
+
+
+	private static String readError(HttpURLConnection connection) {
+		InputStream es = connection.getErrorStream();
+		if (es == null) {
+			return "";
+		}
+
+		StringBuilder message = new StringBuilder();
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(es, "UTF-8"));
+			String line;
+			while ((line = br.readLine()) != null) {
+				message.append(line);
+			}
+			br.close();
+		} catch (IOException e) {
+			// return what was read so far
+		}
+		return message.toString();
+	}
+}
@@ -0,0 +1,378 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * Samples the resident memory (RSS) of a started process and all its
+ * descendants via the /proc filesystem. The peak usage is recorded and the
+ * run is aborted, if the given limit is exceeded.<p>
+ * On systems without /proc, only the process itself is killed on abort and
+ * no memory is recorded.
+ *
+ * @author julianu
+ */
+public class ResourceWatchdog implements Runnable {
+
+	/** the proc filesystem */
+	private static final File PROC = new File("/proc");
+
+	/** interval between two samples in milliseconds */
+	private static final long SAMPLE_INTERVAL = 500;
+
+	/**
+	 * number of samples, after which the process tree is rebuilt, if it
+	 * must be collected from all processes (i.e. the kernel provides no
+	 * children lists)
+	 */
+	private static final int TREE_REFRESH_SAMPLES = 10;
+
+	/** the logger, forwarded to the KNIME log inside the plugin */
+	private static final Logger logger = Logger.getLogger(ResourceWatchdog.class.getName());
+
+
+	/** the watched process */
+	private Process process;
+
+	/** the PID of the watched process, or -1 if it could not be determined */
+	private long pid;
+
+	/** the runnable, which is aborted when the limit is exceeded */
+	private ProteinProphetRunnable runner;
+
+	/** the name of the tool running in the process, used for messages */
+	private String toolName;
+
+	/** maximal allowed RSS in kB, 0 for no limit */
+	private long memoryLimit;
+
+	/** the highest sampled RSS in kB */
+	private volatile long peakRSS;
+
+	/** whether the watchdog should stop sampling */
+	private volatile boolean stopped;
+
+	/** the last collected process tree, used between the refreshes of a full scan */
+	private List<Long> cachedTree;
+
+	/** samples since the cached tree was built */
+	private int samplesSinceRefresh;
+
+
+	public ResourceWatchdog(Process process, ProteinProphetRunnable runner, String toolName, long memoryLimit) {
+		this.process = process;
+		this.pid = getPid(process);
+		this.runner = runner;
+		this.toolName = toolName;
+		this.memoryLimit = memoryLimit;
+		this.peakRSS = 0;
+		this.stopped = false;
+		this.cachedTree = null;
+		this.samplesSinceRefresh = 0;
+	}
+
+
+	@Override
+	public void run() {
+		if ((pid < 0) || !PROC.isDirectory()) {
+			logger.fine("RSS of " + toolName + " cannot be sampled on this system");
+			return;
+		}
+
+		while (!stopped) {
+			long rss = getTreeRSS();
+			if (rss > peakRSS) {
+				peakRSS = rss;
+			}
+
+			if ((memoryLimit > 0) && (rss > memoryLimit)) {
+				runner.abort(toolName + " used " + (rss / 1024) + " MB of memory, exceeding the limit of "
+						+ (memoryLimit / 1024) + " MB. The run was aborted.");
+				return;
+			}
+
+			try {
+				Thread.sleep(SAMPLE_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+
+	/**
+	 * stops the sampling
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+
+	/**
+	 * returns the highest sampled RSS of the process tree in kB
+	 * @return
+	 */
+	public long getPeakRSS() {
+		return peakRSS;
+	}
+
+
+	/**
+	 * Kills the process and all its descendants.
+	 */
+	public void kill() {
+		if ((pid >= 0) && PROC.isDirectory()) {
+			List<Long> pids = getProcessTree();
+			if (pids.size() > 1) {
+				List<String> command = new ArrayList<String>(pids.size() + 2);
+				command.add("kill");
+				command.add("-9");
+				for (Long treePid : pids) {
+					command.add(treePid.toString());
+				}
+
+				try {
+					new ProcessBuilder(command).start().waitFor();
+				} catch (Exception e) {
+					logger.log(Level.WARNING, "Could not kill the child processes of " + toolName, e);
+				}
+			}
+		}
+
+		process.destroy();
+	}
+
+
+	/**
+	 * Sums up the RSS of the process and all its descendants in kB.
+	 * @return
+	 */
+	private long getTreeRSS() {
+		List<Long> tree;
+		if (hasChildrenLists()) {
+			tree = getProcessTree();
+		} else {
+			// scanning all processes is expensive, so the tree is only refreshed from time to time
+			if ((cachedTree == null) || (++samplesSinceRefresh >= TREE_REFRESH_SAMPLES)) {
+				cachedTree = getProcessTree();
+				samplesSinceRefresh = 0;
+			}
+			tree = cachedTree;
+		}
+
+		long rss = 0;
+		for (Long treePid : tree) {
+			rss += getRSS(treePid);
+		}
+		return rss;
+	}
+
+
+	/**
+	 * Returns the PIDs of the watched process and all its descendants. If
+	 * the kernel provides the children of each task, only the tree is walked,
+	 * otherwise all processes are scanned for their parents.
+	 * @return
+	 */
+	private List<Long> getProcessTree() {
+		if (hasChildrenLists()) {
+			List<Long> tree = new ArrayList<Long>();
+			LinkedList<Long> queue = new LinkedList<Long>();
+			queue.add(pid);
+			while (!queue.isEmpty()) {
+				Long treePid = queue.poll();
+				tree.add(treePid);
+				queue.addAll(getChildren(treePid));
+			}
+			return tree;
+		}
+
+		Map<Long, List<Long>> children = new HashMap<Long, List<Long>>();
+
+		File[] procDirs = PROC.listFiles();
+		if (procDirs != null) {
+			for (File procDir : procDirs) {
+				long childPid;
+				try {
+					childPid = Long.parseLong(procDir.getName());
+				} catch (NumberFormatException e) {
+					continue;
+				}
+
+				long parentPid = getParentPid(procDir);
+				if (parentPid >= 0) {
+					List<Long> siblings = children.get(parentPid);
+					if (siblings == null) {
+						siblings = new ArrayList<Long>();
+						children.put(parentPid, siblings);
+					}
+					siblings.add(childPid);
+				}
+			}
+		}
+
+		List<Long> tree = new ArrayList<Long>();
+		LinkedList<Long> queue = new LinkedList<Long>();
+		queue.add(pid);
+		while (!queue.isEmpty()) {
+			Long treePid = queue.poll();
+			tree.add(treePid);
+			if (children.containsKey(treePid)) {
+				queue.addAll(children.get(treePid));
+			}
+		}
+
+		return tree;
+	}
+
+
+	/**
+	 * Whether the kernel lists the children of each task in
+	 * /proc/PID/task/TID/children, which needs CONFIG_PROC_CHILDREN.
+	 * @return
+	 */
+	private boolean hasChildrenLists() {
+		return new File(PROC, pid + File.separator + "task" + File.separator + pid + File.separator + "children").exists();
+	}
+
+
+	/**
+	 * Reads the direct children of all threads of the given process.
+	 * @param processPid
+	 * @return
+	 */
+	private static List<Long> getChildren(long processPid) {
+		List<Long> children = new ArrayList<Long>();
+
+		File[] taskDirs = new File(PROC, processPid + File.separator + "task").listFiles();
+		if (taskDirs != null) {
+			for (File taskDir : taskDirs) {
+				String line = readFirstLine(new File(taskDir, "children"));
+				if ((line == null) || line.trim().isEmpty()) {
+					continue;
+				}
+
+				for (String childPid : line.trim().split(" ")) {
+					try {
+						children.add(Long.parseLong(childPid));
+					} catch (NumberFormatException e) {
+						// not a PID
+					}
+				}
+			}
+		}
+
+		return children;
+	}
+
+
+	/**
+	 * Reads the parent PID from the stat file of a process, -1 if it is not
+	 * readable (e.g. the process has ended meanwhile).
+	 * @param procDir
+	 * @return
+	 */
+	private static long getParentPid(File procDir) {
+		String stat = readFirstLine(new File(procDir, "stat"));
+		if (stat == null) {
+			return -1;
+		}
+
+		// the command name in brackets may contain spaces, the state and PPID follow it
+		String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+		try {
+			return Long.parseLong(fields[1]);
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Reads the VmRSS of the given process in kB, 0 if it is not readable.
+	 * @param processPid
+	 * @return
+	 */
+	private static long getRSS(long processPid) {
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(new File(PROC, processPid + File.separator + "status")));
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.substring(6).replace("kB", "").trim());
+				}
+			}
+		} catch (IOException e) {
+			// the process ended meanwhile
+		} catch (NumberFormatException e) {
+			logger.fine("Could not parse the RSS of process " + processPid);
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+		return 0;
+	}
+
+
+	private static String readFirstLine(File file) {
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader(file));
+			return br.readLine();
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Gets the PID of the process, either by {@link Process}.pid() (Java 9+)
+	 * or the pid field of the UNIX process implementation.
+	 * @param process
+	 * @return the PID or -1, if it could not be determined
+	 */
+	private static long getPid(Process process) {
+		try {
+			Method pidMethod = Process.class.getMethod("pid");
+			return ((Number) pidMethod.invoke(process)).longValue();
+		} catch (Exception e) {
+			// not available before Java 9
+		}
+
+		try {
+			Field pidField = process.getClass().getDeclaredField("pid");
+			pidField.setAccessible(true);
+			return pidField.getInt(process);
+		} catch (Exception e) {
+			logger.log(Level.FINE, "Could not get the PID of the process", e);
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,98 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * Matches the output of xinteract and ProteinProphet line by line against
+ * known fatal conditions, so hopeless runs can be aborted right away instead
+ * of failing only after all tools are finished.<p>
+ * The messages printed by the TPP tools themselves are matched at the start
+ * of the line on both streams. The generic patterns (e.g. unreadable files
+ * or crashes) are only checked on STDERR, as STD output also contains
+ * protein descriptions, file names and progress messages, which may match
+ * them by chance.
+ *
+ * @author julianu
+ */
+public class ToolOutputWatchdog {
+
+	/** a known fatal condition with its explanation */
+	private static class FatalPattern {
+		private Pattern pattern;
+		private String message;
+		private boolean errorStreamOnly;
+
+		public FatalPattern(String regex, String message, boolean errorStreamOnly) {
+			this.pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			this.message = message;
+			this.errorStreamOnly = errorStreamOnly;
+		}
+	}
+
+
+	/** the patterns of the known fatal conditions, checked in this order */
+	private static final List<FatalPattern> FATAL_PATTERNS;
+	static {
+		FATAL_PATTERNS = new ArrayList<FatalPattern>();
+
+		// messages of xinteract and PeptideProphet, printed at the start of the line
+		FATAL_PATTERNS.add(new FatalPattern(
+				"^\\s*(WARNING: )?no decoys? with label .* (were|was) found",
+				"No decoys with the given decoy prefix were found in the search results.", false));
+		FATAL_PATTERNS.add(new FatalPattern(
+				"^command \".*\" failed",
+				"A step of the pipeline failed.", false));
+		FATAL_PATTERNS.add(new FatalPattern(
+				"^QUIT - the job is incomplete",
+				"xinteract stopped the job as incomplete.", false));
+
+		// generic messages, only checked on STDERR
+		FATAL_PATTERNS.add(new FatalPattern(
+				"(cannot|can't|could not|unable to) (open|read|find|access).*(database|\\.fasta?\\b)",
+				"The FASTA database could not be read.", true));
+		FATAL_PATTERNS.add(new FatalPattern(
+				"(unknown|unrecognized|invalid|unsupported) (sample )?enzyme",
+				"The enzyme is not known to the tool.", true));
+		FATAL_PATTERNS.add(new FatalPattern(
+				"(cannot|can't|could not|unable to) (open|read|find|access).*\\.(pep\\.?xml|xml)",
+				"An input or intermediate file could not be read.", true));
+		FATAL_PATTERNS.add(new FatalPattern(
+				"out of memory|std::bad_alloc|cannot allocate memory",
+				"The tool ran out of memory.", true));
+		FATAL_PATTERNS.add(new FatalPattern(
+				"segmentation fault|core dumped",
+				"The tool crashed.", true));
+	}
+
+
+	/** the name of the watched tool, used for the messages */
+	private String toolName;
+
+
+	public ToolOutputWatchdog(String toolName) {
+		this.toolName = toolName;
+	}
+
+
+	/**
+	 * Checks a line of the output for a known fatal condition.
+	 *
+	 * @param line
+	 * @param errorStream whether the line was printed to STDERR
+	 * @return the error message describing the condition, or null if the line is fine
+	 */
+	public String check(String line, boolean errorStream) {
+		for (FatalPattern fatal : FATAL_PATTERNS) {
+			if (fatal.errorStreamOnly && !errorStream) {
+				continue;
+			}
+			if (fatal.pattern.matcher(line).find()) {
+				return toolName + " failed: " + fatal.message + " The output was \"" + line.trim() + "\".";
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,45 @@
+#!/bin/sh
+# Runs the test of the Arrow file writer. The written files are read back by
+# Apache Arrow Java, whose jars are downloaded from Maven Central on the first
+# run. Only needs a JDK and curl, the writer is compiled from ../src.
+set -e
+
+cd "$(dirname "$0")"
+
+MAVEN=https://repo1.maven.org/maven2
+JARS="
+org/apache/arrow/arrow-vector/12.0.1/arrow-vector-12.0.1.jar
+org/apache/arrow/arrow-format/12.0.1/arrow-format-12.0.1.jar
+org/apache/arrow/arrow-memory-core/12.0.1/arrow-memory-core-12.0.1.jar
+org/apache/arrow/arrow-memory-unsafe/12.0.1/arrow-memory-unsafe-12.0.1.jar
+org/apache/arrow/arrow-compression/12.0.1/arrow-compression-12.0.1.jar
+org/apache/commons/commons-compress/1.21/commons-compress-1.21.jar
+com/github/luben/zstd-jni/1.4.9-1/zstd-jni-1.4.9-1.jar
+com/google/flatbuffers/flatbuffers-java/1.12.0/flatbuffers-java-1.12.0.jar
+com/fasterxml/jackson/core/jackson-core/2.14.2/jackson-core-2.14.2.jar
+com/fasterxml/jackson/core/jackson-databind/2.14.2/jackson-databind-2.14.2.jar
+com/fasterxml/jackson/core/jackson-annotations/2.14.2/jackson-annotations-2.14.2.jar
+com/fasterxml/jackson/datatype/jackson-datatype-jsr310/2.14.2/jackson-datatype-jsr310-2.14.2.jar
+commons-codec/commons-codec/1.15/commons-codec-1.15.jar
+org/slf4j/slf4j-api/1.7.36/slf4j-api-1.7.36.jar
+"
+
+mkdir -p build/lib
+CLASSPATH=build/classes
+for jar in $JARS; do
+	file="build/lib/$(basename "$jar")"
+	if [ ! -f "$file" ]; then
+		curl -sSf -o "$file" "$MAVEN/$jar"
+	fi
+	CLASSPATH="$CLASSPATH:$file"
+done
+
+rm -rf build/classes build/files
+mkdir -p build/classes
+
+javac -encoding UTF-8 -d build/classes -cp "$CLASSPATH" -sourcepath src:../src \
+	src/de/mpc/tools/knimeproteinprophet/ArrowFileWriterTest.java
+
+# Arrow's memory module needs access to the NIO internals on Java 9 and later
+java --add-opens=java.base/java.nio=ALL-UNNAMED -cp "$CLASSPATH" \
+	de.mpc.tools.knimeproteinprophet.ArrowFileWriterTest "$(pwd)/build/files"
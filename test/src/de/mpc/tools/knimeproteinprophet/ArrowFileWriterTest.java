@@ -0,0 +1,317 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.arrow.compression.CommonsCompressionFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.util.Text;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+
+import de.mpc.tools.knimeproteinprophet.ArrowFileWriter.Type;
+import de.mpc.tools.knimeproteinprophet.ArrowFileWriter.Vector;
+
+
+/**
+ * Test of the {@link ArrowFileWriter} and the {@link LZ4FrameCompressor}.
+ * The written files are read back by Apache Arrow Java and the LZ4 frames are
+ * decompressed by Apache Commons Compress. Run it by <code>test/run.sh</code>.
+ *
+ * @author julianu
+ */
+public class ArrowFileWriterTest {
+
+	/** the number of failed checks */
+	private static int failures = 0;
+
+
+	/** the directory of the test files */
+	private File testDir;
+
+	private BufferAllocator allocator;
+
+
+	public ArrowFileWriterTest(File testDir) {
+		this.testDir = testDir;
+		this.allocator = new RootAllocator();
+	}
+
+
+	private static void check(boolean condition, String message) {
+		System.out.println((condition ? "ok      " : "FAILED  ") + message);
+		if (!condition) {
+			failures++;
+		}
+	}
+
+
+	/**
+	 * The expected values of a column, null for missing values.
+	 */
+	private static class Column {
+		private Vector vector;
+		private List<Object> values;
+
+		public Column(String name, Type type) {
+			this.vector = new Vector(name, type);
+			this.values = new ArrayList<Object>();
+		}
+
+		public void add(Object value) throws IOException {
+			values.add(value);
+			if (value == null) {
+				vector.addNull();
+			} else if (value instanceof Integer) {
+				vector.addInt((Integer) value);
+			} else if (value instanceof Double) {
+				vector.addDouble((Double) value);
+			} else if (value instanceof Boolean) {
+				vector.addBoolean((Boolean) value);
+			} else {
+				vector.addString((String) value);
+			}
+		}
+	}
+
+
+	private static List<Vector> getVectors(List<Column> columns) {
+		List<Vector> vectors = new ArrayList<Vector>(columns.size());
+		for (Column column : columns) {
+			vectors.add(column.vector);
+		}
+		return vectors;
+	}
+
+
+	private static List<Column> createColumns() {
+		List<Column> columns = new ArrayList<Column>();
+		columns.add(new Column("int", Type.INT32));
+		columns.add(new Column("double", Type.FLOAT64));
+		columns.add(new Column("bool", Type.BOOL));
+		columns.add(new Column("string", Type.UTF8));
+		return columns;
+	}
+
+
+	/**
+	 * Reads the file by Arrow Java and compares it with the expected values.
+	 *
+	 * @param batchSizes the expected number of rows of each record batch
+	 */
+	private void checkFile(String name, File file, List<Column> columns, int... batchSizes) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		ArrowFileReader reader = new ArrowFileReader(fis.getChannel(), allocator,
+				CommonsCompressionFactory.INSTANCE);
+		try {
+			VectorSchemaRoot root = reader.getVectorSchemaRoot();
+			List<Field> fields = root.getSchema().getFields();
+			boolean schemaOk = fields.size() == columns.size();
+			for (int i = 0; schemaOk && (i < fields.size()); i++) {
+				schemaOk = fields.get(i).getName().equals(columns.get(i).vector.getName())
+						&& fields.get(i).isNullable();
+			}
+			check(schemaOk, name + ": schema " + fields);
+			check(reader.getRecordBlocks().size() == batchSizes.length,
+					name + ": " + reader.getRecordBlocks().size() + " record batches");
+
+			int batch = 0;
+			int row = 0;
+			int wrongValues = 0;
+			while (reader.loadNextBatch()) {
+				check((batch < batchSizes.length) && (root.getRowCount() == batchSizes[batch]),
+						name + ": batch " + batch + " has " + root.getRowCount() + " rows");
+
+				for (int i = 0; i < columns.size(); i++) {
+					FieldVector vector = root.getVector(i);
+					List<Object> expected = columns.get(i).values;
+					int nullCount = 0;
+					for (int r = 0; r < root.getRowCount(); r++) {
+						Object value = vector.getObject(r);
+						if (value instanceof Text) {
+							value = value.toString();
+						} else if (value == null) {
+							nullCount++;
+						}
+						Object expectedValue = expected.get(row + r);
+						if ((expectedValue == null) ? (value != null) : !expectedValue.equals(value)) {
+							if (wrongValues++ < 5) {
+								System.out.println("        " + fields.get(i).getName() + "[" + (row + r)
+										+ "] = " + value + ", expected " + expectedValue);
+							}
+						}
+					}
+					if (nullCount != vector.getNullCount()) {
+						wrongValues++;
+					}
+				}
+				row += root.getRowCount();
+				batch++;
+			}
+			check(wrongValues == 0, name + ": " + row + " rows with the written values and null counts");
+		} finally {
+			reader.close();
+			fis.close();
+		}
+	}
+
+
+	/**
+	 * A file without record batches has the schema only.
+	 */
+	public void testEmpty() throws IOException {
+		List<Column> columns = createColumns();
+		File file = new File(testDir, "empty.arrow");
+		new ArrowFileWriter(file, getVectors(columns)).close();
+
+		checkFile("empty", file, columns);
+	}
+
+
+	/**
+	 * Nulls in each type, a column with only nulls, empty strings and
+	 * multibyte characters.
+	 */
+	public void testNulls() throws IOException {
+		List<Column> columns = createColumns();
+		Column allNull = new Column("all_null", Type.FLOAT64);
+		columns.add(allNull);
+
+		File file = new File(testDir, "nulls.arrow");
+		ArrowFileWriter writer = new ArrowFileWriter(file, getVectors(columns));
+		for (int i = 0; i < 21; i++) {
+			boolean isNull = (i % 3 == 1);
+			columns.get(0).add(isNull ? null : Integer.valueOf(i - 10));
+			columns.get(1).add((i % 4 == 0) ? null : Double.valueOf(i / 7.0));
+			columns.get(2).add(isNull ? null : Boolean.valueOf(i % 2 == 0));
+			columns.get(3).add((i % 5 == 0) ? null : ((i % 5 == 1) ? "" : "Protéin_α" + i));
+			allNull.add(null);
+		}
+		writer.writeBatch();
+		writer.close();
+
+		checkFile("nulls", file, columns, 21);
+	}
+
+
+	/**
+	 * Several record batches of repetitive and of random values, so both
+	 * compressed and uncompressed buffers are written.
+	 */
+	public void testBatches() throws IOException {
+		List<Column> columns = createColumns();
+		Column random = new Column("random", Type.FLOAT64);
+		columns.add(random);
+
+		Random rnd = new Random(42);
+		int[] batchSizes = new int[]{70000, 70000, 10};
+		File file = new File(testDir, "batches.arrow");
+		ArrowFileWriter writer = new ArrowFileWriter(file, getVectors(columns));
+		int row = 0;
+		for (int batchSize : batchSizes) {
+			for (int i = 0; i < batchSize; i++) {
+				columns.get(0).add(row / 10);
+				columns.get(1).add((row % 100 == 0) ? null : Double.valueOf((row / 20) * 0.25));
+				columns.get(2).add(row % 3 == 0);
+				columns.get(3).add("sp|P" + (10000 + row / 10) + "|PROTEIN_HUMAN");
+				random.add(rnd.nextDouble());
+				row++;
+			}
+			writer.writeBatch();
+		}
+		writer.close();
+
+		checkFile("batches", file, columns, batchSizes);
+
+		// the random doubles alone need 8 bytes per row
+		long rawSize = 0;
+		for (int batchSize : batchSizes) {
+			rawSize += batchSize * (4L + 8L + 8L + 26L + 8L);
+		}
+		check(file.length() < 8L * row + rawSize / 4,
+				"batches: compressed to " + file.length() + " bytes, the raw buffers are " + rawSize + " bytes");
+	}
+
+
+	/**
+	 * The LZ4 frames are decompressed to the original data.
+	 */
+	public void testLZ4Frames() throws IOException {
+		Random rnd = new Random(7);
+		LZ4FrameCompressor compressor = new LZ4FrameCompressor();
+
+		List<byte[]> inputs = new ArrayList<byte[]>();
+		inputs.add(new byte[]{1});
+		inputs.add("abcdabcdabcda".getBytes("UTF-8"));
+		// long runs need extended match lengths, random data stays uncompressed
+		inputs.add(new byte[100000]);
+		byte[] randomBytes = new byte[70000];
+		rnd.nextBytes(randomBytes);
+		inputs.add(randomBytes);
+		// long literals between matches and more than one block
+		byte[] mixed = new byte[200000];
+		for (int i = 0; i < mixed.length; i++) {
+			mixed[i] = ((i / 1000) % 2 == 0) ? (byte) rnd.nextInt() : (byte) (i % 7);
+		}
+		inputs.add(mixed);
+
+		int wrong = 0;
+		for (byte[] input : inputs) {
+			byte[] frame = compressor.compress(input);
+			InputStream is = new FramedLZ4CompressorInputStream(new ByteArrayInputStream(frame));
+			ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) >= 0) {
+				decompressed.write(buffer, 0, read);
+			}
+			is.close();
+
+			if (!Arrays.equals(input, decompressed.toByteArray())) {
+				System.out.println("        " + input.length + " bytes not decompressed correctly");
+				wrong++;
+			}
+		}
+		check(wrong == 0, "LZ4 frames: " + inputs.size() + " inputs decompressed correctly");
+		check(compressor.compress(new byte[100000]).length < 1000, "LZ4 frames: zeros are compressed");
+	}
+
+
+	public void close() {
+		allocator.close();
+	}
+
+
+	/**
+	 * @param args a directory for the test files
+	 */
+	public static void main(String[] args) throws Exception {
+		File testDir = new File(args[0]);
+		testDir.mkdirs();
+
+		ArrowFileWriterTest test = new ArrowFileWriterTest(testDir);
+		try {
+			test.testEmpty();
+			test.testNulls();
+			test.testBatches();
+			test.testLZ4Frames();
+		} finally {
+			test.close();
+		}
+
+		System.out.println((failures == 0) ? "all checks passed" : (failures + " checks failed"));
+		System.exit((failures == 0) ? 0 : 1);
+	}
+}
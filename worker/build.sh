@@ -0,0 +1,18 @@
+#!/bin/sh
+# Builds the standalone ProteinProphet worker as build/proteinprophet-worker.jar.
+# The worker shares the execution classes with the KNIME plugin, but only
+# needs a JDK: the classes are compiled from ../src without KNIME or OSGi.
+set -e
+
+cd "$(dirname "$0")"
+
+rm -rf build
+mkdir -p build/classes
+
+javac -encoding UTF-8 -d build/classes -sourcepath src:../src \
+	src/de/mpc/tools/knimeproteinprophet/ProteinProphetWorker.java
+
+jar cfe build/proteinprophet-worker.jar de.mpc.tools.knimeproteinprophet.ProteinProphetWorker \
+	-C build/classes .
+
+echo "built build/proteinprophet-worker.jar"
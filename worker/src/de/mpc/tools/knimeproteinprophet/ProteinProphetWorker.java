@@ -0,0 +1,643 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A lightweight HTTP service running the inferences sent by the
+ * {@link RemoteExecutionBackend} on a dedicated host. The jobs are executed
+ * by the {@link LocalExecutionBackend} with the executables of the worker,
+ * at most the given number of jobs run at the same time, further jobs wait
+ * in the order of their arrival.<p>
+ * The worker is not part of the KNIME plugin, it is built as standalone jar
+ * by <code>worker/build.sh</code> and needs neither KNIME nor OSGi:
+ * <pre>
+ * java -jar proteinprophet-worker.jar [OPTIONS] XINTERACT PROTEINPROPHET
+ * </pre>
+ * The worker listens on the loopback interface by default. To listen on
+ * other interfaces, a shared token is required, which the clients send in
+ * the header {@link RemoteExecutionBackend#TOKEN_HEADER}. The resource
+ * limits requested by the clients are capped by the maxima of the worker.
+ *
+ * @author julianu
+ */
+public class ProteinProphetWorker {
+
+	/** the logger of the worker */
+	private static final Logger logger = Logger.getLogger(ProteinProphetWorker.class.getName());
+
+	/** the prefix of the job directories in the temporary directory */
+	private static final String JOB_DIRECTORY_PREFIX = "PPworker";
+
+	/** the environment variable, which may contain the token */
+	public static final String TOKEN_VARIABLE = "PROTEINPROPHET_WORKER_TOKEN";
+
+	public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+	public static final int DEFAULT_PORT = 8080;
+	public static final int DEFAULT_MAX_UPLOAD = 10240;
+
+
+	/** path to the executable of xinteract */
+	private String execXinteract;
+
+	/** path to the executable of ProteinProphet */
+	private String execProteinProphet;
+
+	/** limits the number of parallel jobs, fair to start the jobs in order */
+	private Semaphore jobSlots;
+
+	/** the currently known jobs by their IDs */
+	private Map<String, ProteinProphetRunnable> jobs;
+
+	/** the token expected from the clients, null if none is needed */
+	private byte[] token;
+
+	/** the minimal nice level of the jobs */
+	private int minNiceLevel;
+
+	/** the maximal CPU time limit of the jobs in s, 0 for none */
+	private int maxCpuTimeLimit;
+
+	/** the maximal memory limit of the jobs in MB, 0 for none */
+	private int maxMemoryLimit;
+
+	/** the maximal threads of the jobs, 0 for none */
+	private int maxThreads;
+
+	/** the maximal size of the (uncompressed) input files of a job in bytes, 0 for none */
+	private long maxUploadSize;
+
+	/** the HTTP server */
+	private HttpServer server;
+
+
+	/**
+	 * Creates the worker listening on the given address.
+	 *
+	 * @param address
+	 * @param token the token expected from the clients, may be null only for loopback addresses
+	 * @param execXinteract
+	 * @param execProteinProphet
+	 * @param parallelJobs
+	 * @throws IOException
+	 */
+	public ProteinProphetWorker(InetSocketAddress address, String token,
+			String execXinteract, String execProteinProphet, int parallelJobs) throws IOException {
+		if (((token == null) || token.isEmpty()) && !address.getAddress().isLoopbackAddress()) {
+			throw new IllegalArgumentException("A token is needed to listen on " + address.getAddress()
+					+ ", set it in " + TOKEN_VARIABLE + " or pass a token file.");
+		}
+
+		this.execXinteract = execXinteract;
+		this.execProteinProphet = execProteinProphet;
+		this.jobSlots = new Semaphore(parallelJobs, true);
+		this.jobs = new ConcurrentHashMap<String, ProteinProphetRunnable>();
+		this.token = ((token == null) || token.isEmpty()) ? null : token.getBytes("UTF-8");
+		this.minNiceLevel = 0;
+		this.maxCpuTimeLimit = 0;
+		this.maxMemoryLimit = 0;
+		this.maxThreads = 0;
+		this.maxUploadSize = 0;
+
+		server = HttpServer.create(address, 0);
+		server.createContext(RemoteExecutionBackend.RUN_PATH, new RunHandler());
+		server.createContext(RemoteExecutionBackend.ABORT_PATH, new AbortHandler());
+		// waiting jobs block their request thread, so each request needs its own
+		server.setExecutor(Executors.newCachedThreadPool());
+	}
+
+
+	/**
+	 * Sets the limits applied to all jobs, the limits requested by the
+	 * clients are only used if they are stricter.
+	 *
+	 * @param minNiceLevel the minimal nice level
+	 * @param maxCpuTimeLimit the maximal CPU time per process in s, 0 for no maximum
+	 * @param maxMemoryLimit the maximal RSS per process in MB, 0 for no maximum
+	 * @param maxThreads the maximal threads per job, 0 for no maximum
+	 * @param maxUploadSize the maximal size of the input files of a job in MB, 0 for no maximum
+	 */
+	public void setLimits(int minNiceLevel, int maxCpuTimeLimit, int maxMemoryLimit, int maxThreads,
+			int maxUploadSize) {
+		this.minNiceLevel = minNiceLevel;
+		this.maxCpuTimeLimit = maxCpuTimeLimit;
+		this.maxMemoryLimit = maxMemoryLimit;
+		this.maxThreads = maxThreads;
+		this.maxUploadSize = maxUploadSize * 1024L * 1024L;
+	}
+
+
+	public void start() {
+		server.start();
+	}
+
+
+	public void stop() {
+		server.stop(0);
+	}
+
+
+	/**
+	 * returns the port the worker listens on
+	 * @return
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+
+	/**
+	 * returns the address the worker listens on
+	 * @return
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+
+	/**
+	 * Receives the input files, runs the job when a slot is free and sends
+	 * back the output and the created files.
+	 */
+	private class RunHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"POST".equals(exchange.getRequestMethod())) {
+					sendError(exchange, 405, "Only POST is supported.");
+					return;
+				}
+
+				if (!isAuthorized(exchange)) {
+					sendError(exchange, 401, "Missing or wrong worker token.");
+					return;
+				}
+
+				String jobId = exchange.getRequestHeaders().getFirst(RemoteExecutionBackend.JOB_ID);
+				if (jobId == null) {
+					sendError(exchange, 400, "No job ID given.");
+					return;
+				}
+
+				File dir = createJobDirectory();
+				try {
+					runJob(exchange, jobId, dir);
+				} finally {
+					deleteDirectory(dir);
+				}
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Error while handling a job", e);
+				throw e;
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+
+	/**
+	 * Reads the job from the request, runs it as soon as a slot is free and
+	 * sends back the result.
+	 */
+	private void runJob(HttpExchange exchange, String jobId, File dir) throws IOException {
+		List<String> output = Collections.synchronizedList(new ArrayList<String>());
+		List<String> errorOutput = Collections.synchronizedList(new ArrayList<String>());
+
+		ProteinProphetRunnable job;
+		try {
+			job = readJob(exchange.getRequestBody(), dir, output, errorOutput);
+		} catch (IOException e) {
+			sendError(exchange, 400, "Could not read the job: " + e.getMessage());
+			return;
+		}
+
+		jobs.put(jobId, job);
+		try {
+			jobSlots.acquire();
+			try {
+				job.run();
+			} finally {
+				jobSlots.release();
+			}
+		} catch (InterruptedException e) {
+			job.fail("The worker was interrupted.");
+		} finally {
+			jobs.remove(jobId);
+		}
+
+		if ((job.getErrorMessage() == null) && (job.getProtXMLFile() == null)) {
+			job.fail("Error while executing ProteinProphet.");
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "application/zip");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream os = exchange.getResponseBody();
+		try {
+			writeResult(job, os);
+			os.close();
+		} catch (IOException e) {
+			if (!job.isAborted()) {
+				throw e;
+			}
+			// the client closed the connection when aborting the job
+			logger.fine("could not send the result of the aborted job " + jobId);
+		}
+	}
+
+
+	/**
+	 * Aborts the job with the given ID.
+	 */
+	private class AbortHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!isAuthorized(exchange)) {
+					sendError(exchange, 401, "Missing or wrong worker token.");
+					return;
+				}
+
+				String jobId = getQueryParameters(exchange.getRequestURI().getRawQuery())
+						.get(RemoteExecutionBackend.JOB_ID);
+				ProteinProphetRunnable job = (jobId != null) ? jobs.get(jobId) : null;
+
+				if (job == null) {
+					sendError(exchange, 404, "Unknown job.");
+					return;
+				}
+
+				job.abort("Execution was cancelled.");
+				exchange.sendResponseHeaders(200, -1);
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+
+	/**
+	 * Checks the token of the request in constant time.
+	 */
+	private boolean isAuthorized(HttpExchange exchange) throws IOException {
+		if (token == null) {
+			return true;
+		}
+		String requestToken = exchange.getRequestHeaders().getFirst(RemoteExecutionBackend.TOKEN_HEADER);
+		return (requestToken != null) && MessageDigest.isEqual(token, requestToken.getBytes("UTF-8"));
+	}
+
+
+	/**
+	 * Stores the files of the request in the directory and creates the job.
+	 */
+	private ProteinProphetRunnable readJob(InputStream is, File dir, List<String> output, List<String> errorOutput)
+			throws IOException {
+		ZipInputStream zis = new ZipInputStream(is);
+		// counts the uncompressed bytes of all entries
+		InputStream entryStream = new LimitedInputStream(zis, maxUploadSize);
+		Properties settings = new Properties();
+		Map<String, String> pepXMLFiles = new TreeMap<String, String>(new PepXMLEntryComparator());
+		String fastaFile = null;
+
+		ZipEntry entry;
+		while ((entry = zis.getNextEntry()) != null) {
+			String name = entry.getName();
+
+			if (RemoteExecutionBackend.JOB_ENTRY.equals(name)) {
+				settings.load(entryStream);
+			} else if (name.startsWith(RemoteExecutionBackend.PEPXML_ENTRY)
+					|| name.startsWith(RemoteExecutionBackend.FASTA_ENTRY)) {
+				// only the file name is used, so no entry can be written outside the directory
+				File file = new File(dir, new File(name).getName());
+				RemoteExecutionBackend.copyStream(entryStream, file);
+
+				if (name.startsWith(RemoteExecutionBackend.PEPXML_ENTRY)) {
+					pepXMLFiles.put(file.getName(), file.getAbsolutePath());
+				} else {
+					fastaFile = file.getAbsolutePath();
+				}
+			}
+			zis.closeEntry();
+		}
+
+		if (pepXMLFiles.isEmpty() || (fastaFile == null)) {
+			throw new IOException("The job needs pepXML files and a FASTA database.");
+		}
+
+		try {
+			ProteinProphetRunnable job = new ProteinProphetRunnable(new ArrayList<String>(pepXMLFiles.values()),
+					fastaFile,
+					settings.getProperty(RemoteExecutionBackend.KEY_ENZYME),
+					Double.valueOf(settings.getProperty(RemoteExecutionBackend.KEY_MINPROB)),
+					Boolean.valueOf(settings.getProperty(RemoteExecutionBackend.KEY_IPROPHET)),
+					settings.getProperty(RemoteExecutionBackend.KEY_DECOYPREFIX),
+					Math.max(capLimit(Integer.parseInt(settings.getProperty(RemoteExecutionBackend.KEY_THREADS)),
+							maxThreads), 1),
+					execXinteract, execProteinProphet, dir.getAbsolutePath(),
+					output, errorOutput);
+			job.setResourceLimits(
+					Math.min(Math.max(Integer.parseInt(settings.getProperty(RemoteExecutionBackend.KEY_NICELEVEL, "0")),
+							minNiceLevel), 19),
+					capLimit(Integer.parseInt(settings.getProperty(RemoteExecutionBackend.KEY_CPUTIMELIMIT, "0")),
+							maxCpuTimeLimit),
+					capLimit(Integer.parseInt(settings.getProperty(RemoteExecutionBackend.KEY_MEMORYLIMIT, "0")),
+							maxMemoryLimit));
+			return job;
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid job settings: " + e.getMessage(), e);
+		}
+	}
+
+
+	/**
+	 * Returns the requested limit, if it is set and within the maximum, else
+	 * the maximum. A value of 0 means no limit.
+	 */
+	private static int capLimit(int requested, int maximum) {
+		if (maximum <= 0) {
+			return requested;
+		}
+		return ((requested <= 0) || (requested > maximum)) ? maximum : requested;
+	}
+
+
+	/**
+	 * Fails, when more than the allowed number of bytes are read.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+		private long limit;
+
+		public LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+			this.remaining = (limit > 0) ? limit : Long.MAX_VALUE;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count(read);
+			}
+			return read;
+		}
+
+		private void count(int read) throws IOException {
+			remaining -= read;
+			if (remaining < 0) {
+				throw new IOException("The input files exceed the maximal size of "
+						+ (limit / 1024 / 1024) + " MB on this worker.");
+			}
+		}
+
+		@Override
+		public void close() {
+			// the entries are closed by the ZIP stream
+		}
+	}
+
+
+	/**
+	 * Writes the output, the result and the created files as ZIP archive.
+	 */
+	private static void writeResult(ProteinProphetRunnable job, OutputStream os) throws IOException {
+		ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os));
+
+		Properties result = new Properties();
+		result.setProperty(RemoteExecutionBackend.KEY_PEAKRSS, Long.toString(job.getPeakRSS()));
+		if (job.getErrorMessage() != null) {
+			result.setProperty(RemoteExecutionBackend.KEY_ERRORMESSAGE, job.getErrorMessage());
+		}
+		zos.putNextEntry(new ZipEntry(RemoteExecutionBackend.RESULT_ENTRY));
+		result.store(zos, null);
+		zos.closeEntry();
+
+		writeLines(zos, RemoteExecutionBackend.OUTPUT_ENTRY, job.getOutput());
+		writeLines(zos, RemoteExecutionBackend.ERROR_OUTPUT_ENTRY, job.getErrorOutput());
+
+		if (job.getErrorMessage() == null) {
+			RemoteExecutionBackend.writeFileEntry(zos, RemoteExecutionBackend.PROTXML_ENTRY,
+					new File(job.getProtXMLFile()));
+			RemoteExecutionBackend.writeFileEntry(zos, RemoteExecutionBackend.EXCEL_ENTRY,
+					new File(job.getExcelFile()));
+		}
+
+		zos.finish();
+		zos.flush();
+	}
+
+
+	private static void writeLines(ZipOutputStream zos, String entryName, List<String> lines) throws IOException {
+		zos.putNextEntry(new ZipEntry(entryName));
+		// the ZIP stream must not be closed by the writer
+		Writer writer = new OutputStreamWriter(zos, "UTF-8");
+		synchronized (lines) {
+			for (String line : lines) {
+				writer.write(line);
+				writer.write("\n");
+			}
+		}
+		writer.flush();
+		zos.closeEntry();
+	}
+
+
+	private static void sendError(HttpExchange exchange, int code, String message) throws IOException {
+		byte[] bytes = message.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}
+
+
+	private static Map<String, String> getQueryParameters(String query) throws IOException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int idx = parameter.indexOf('=');
+				if (idx > 0) {
+					parameters.put(URLDecoder.decode(parameter.substring(0, idx), "UTF-8"),
+							URLDecoder.decode(parameter.substring(idx + 1), "UTF-8"));
+				}
+			}
+		}
+		return parameters;
+	}
+
+
+	/**
+	 * Creates a new directory for the files of a job in the temporary
+	 * directory.
+	 */
+	private static File createJobDirectory() throws IOException {
+		File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+		Random random = new Random();
+		for (int tries = 0; tries < 100; tries++) {
+			File dir = new File(tmpDir, String.format("%s%06d", JOB_DIRECTORY_PREFIX, random.nextInt(Integer.MAX_VALUE)));
+			// mkdir fails for existing directories, so concurrent jobs never share one
+			if (dir.mkdir()) {
+				return dir;
+			}
+		}
+		throw new IOException("Could not create a job directory in " + tmpDir.getAbsolutePath());
+	}
+
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDirectory(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
+
+	/**
+	 * Sorts the pepXML files by the index prefixed by the client.
+	 */
+	private static class PepXMLEntryComparator implements java.util.Comparator<String> {
+		@Override
+		public int compare(String o1, String o2) {
+			return Integer.valueOf(getIndex(o1)).compareTo(getIndex(o2));
+		}
+
+		private static int getIndex(String name) {
+			int idx = name.indexOf('_');
+			try {
+				return Integer.parseInt((idx > 0) ? name.substring(0, idx) : name);
+			} catch (NumberFormatException e) {
+				return Integer.MAX_VALUE;
+			}
+		}
+	}
+
+
+	private static void printUsage() {
+		System.err.println("usage: java -jar proteinprophet-worker.jar [OPTIONS] XINTERACT PROTEINPROPHET");
+		System.err.println();
+		System.err.println("  -bind ADDRESS        address to listen on (default " + DEFAULT_BIND_ADDRESS + ")");
+		System.err.println("  -port PORT           port to listen on (default " + DEFAULT_PORT + ")");
+		System.err.println("  -jobs N              number of parallel jobs (default 1)");
+		System.err.println("  -tokenfile FILE      file with the token expected from the clients, alternatively");
+		System.err.println("                       set " + TOKEN_VARIABLE + "; required for non-loopback addresses");
+		System.err.println("  -minnice N           minimal nice level of the jobs (default 0)");
+		System.err.println("  -maxcputime S        maximal CPU time per process in s (default 0 = no maximum)");
+		System.err.println("  -maxmemory MB        maximal RSS per process in MB (default 0 = no maximum)");
+		System.err.println("  -maxthreads N        maximal threads per job (default 0 = no maximum)");
+		System.err.println("  -maxupload MB        maximal size of the input files per job (default "
+				+ DEFAULT_MAX_UPLOAD + ", 0 = no maximum)");
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		Map<String, String> options = new HashMap<String, String>();
+		List<String> arguments = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("-") && (i + 1 < args.length)) {
+				options.put(args[i].substring(1), args[++i]);
+			} else {
+				arguments.add(args[i]);
+			}
+		}
+
+		if (arguments.size() != 2) {
+			printUsage();
+			System.exit(1);
+		}
+
+		String token = System.getenv(TOKEN_VARIABLE);
+		if (options.containsKey("tokenfile")) {
+			BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(options.get("tokenfile")), "UTF-8"));
+			try {
+				token = reader.readLine();
+			} finally {
+				reader.close();
+			}
+		}
+
+		ProteinProphetWorker worker;
+		int parallelJobs;
+		try {
+			String bindAddress = options.containsKey("bind") ? options.get("bind") : DEFAULT_BIND_ADDRESS;
+			int port = options.containsKey("port") ? Integer.parseInt(options.get("port")) : DEFAULT_PORT;
+			parallelJobs = options.containsKey("jobs") ? Integer.parseInt(options.get("jobs")) : 1;
+
+			worker = new ProteinProphetWorker(new InetSocketAddress(InetAddress.getByName(bindAddress), port),
+					(token != null) ? token.trim() : null, arguments.get(0), arguments.get(1), parallelJobs);
+			worker.setLimits(getIntOption(options, "minnice", 0),
+					getIntOption(options, "maxcputime", 0),
+					getIntOption(options, "maxmemory", 0),
+					getIntOption(options, "maxthreads", 0),
+					getIntOption(options, "maxupload", DEFAULT_MAX_UPLOAD));
+		} catch (IllegalArgumentException e) {
+			// also catches the NumberFormatException of invalid numbers
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(1);
+			return;
+		}
+
+		worker.start();
+		System.out.println("ProteinProphet worker listening on " + worker.getAddress()
+				+ " running " + parallelJobs + " jobs in parallel"
+				+ ((worker.token != null) ? ", clients need the token" : ""));
+	}
+
+
+	private static int getIntOption(Map<String, String> options, String name, int defaultValue) {
+		return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+	}
+}
@@ -0,0 +1,15 @@
+#!/bin/sh
+# Runs the end-to-end test of the worker with the stand-in executables.
+# Only needs a JDK, the execution classes are compiled from ../../src.
+set -e
+
+cd "$(dirname "$0")"
+
+rm -rf build
+mkdir -p build/classes
+
+javac -encoding UTF-8 -d build/classes -sourcepath src:../src:../../src \
+	src/de/mpc/tools/knimeproteinprophet/ProteinProphetWorkerTest.java
+
+java -cp build/classes de.mpc.tools.knimeproteinprophet.ProteinProphetWorkerTest \
+	"$(pwd)/standin" "$(pwd)/build/files"
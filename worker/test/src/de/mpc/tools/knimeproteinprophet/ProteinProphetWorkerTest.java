@@ -0,0 +1,232 @@
+package de.mpc.tools.knimeproteinprophet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * End-to-end test of the {@link RemoteExecutionBackend} against a
+ * {@link ProteinProphetWorker}, which runs the stand-in scripts of
+ * <code>worker/test/standin</code> instead of the TPP tools. Run it by
+ * <code>worker/test/run.sh</code>.
+ *
+ * @author julianu
+ */
+public class ProteinProphetWorkerTest {
+
+	private static final String TOKEN = "test-token";
+
+	/** the number of failed checks */
+	private static int failures = 0;
+
+
+	/** the directory of the test files */
+	private File testDir;
+
+	private ProteinProphetWorker worker;
+
+	private String workerURL;
+
+
+	public ProteinProphetWorkerTest(File standinDir, File testDir) throws IOException {
+		this.testDir = testDir;
+
+		worker = new ProteinProphetWorker(new InetSocketAddress("127.0.0.1", 0), TOKEN,
+				new File(standinDir, "xinteract").getAbsolutePath(),
+				new File(standinDir, "ProteinProphet").getAbsolutePath(), 1);
+		worker.setLimits(5, 100, 200, 1, 1);
+		worker.start();
+		workerURL = "http://127.0.0.1:" + worker.getPort() + "/";
+	}
+
+
+	private static void check(boolean condition, String message) {
+		System.out.println((condition ? "ok      " : "FAILED  ") + message);
+		if (!condition) {
+			failures++;
+		}
+	}
+
+
+	private File createFile(String name, String content) throws IOException {
+		File file = new File(testDir, name);
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+
+	private ProteinProphetRunnable createJob(List<String> output, String... pepXMLFiles) throws IOException {
+		File clientDir = new File(testDir, "client" + System.nanoTime());
+		clientDir.mkdirs();
+		return new ProteinProphetRunnable(Arrays.asList(pepXMLFiles),
+				createFile("db.fasta", ">A\nPEPTIDE\n").getAbsolutePath(),
+				"T", 0.9, true, "decoy_", 2, "unused", "unused", clientDir.getAbsolutePath(),
+				output, new ArrayList<String>());
+	}
+
+
+	/**
+	 * A complete run returns the output and the result files, with the
+	 * resource limits capped by the worker.
+	 */
+	public void testRun() throws IOException {
+		List<String> output = Collections.synchronizedList(new ArrayList<String>());
+		ProteinProphetRunnable job = createJob(output,
+				createFile("1.pep.xml", "<msms_pipeline_analysis/>\n").getAbsolutePath(),
+				createFile("2.pep.xml", "<msms_pipeline_analysis/>\n").getAbsolutePath());
+		job.setResourceLimits(0, 1000, 1000);
+		job.setExecutionBackend(new RemoteExecutionBackend(workerURL, TOKEN));
+		job.run();
+
+		check(job.getErrorMessage() == null, "run: no error (" + job.getErrorMessage() + ")");
+		check((job.getProtXMLFile() != null) && new File(job.getProtXMLFile()).isFile(), "run: protXML returned");
+		check((job.getExcelFile() != null) && new File(job.getExcelFile()).isFile(), "run: xls returned");
+		check(output.toString().contains("0_1.pep.xml") && output.toString().contains("1_2.pep.xml"),
+				"run: pepXML files passed in order");
+		check(output.contains("limits nice=5 cpu=100 data=409600"), "run: limits capped by the worker " + output);
+		check(output.toString().contains("-THREADS=1"), "run: threads capped by the worker");
+	}
+
+
+	/**
+	 * Aborting a running job stops it on the worker and returns quickly.
+	 */
+	public void testAbort() throws Exception {
+		final ProteinProphetRunnable job = createJob(new ArrayList<String>(),
+				createFile("sleep.pep.xml", "SLEEP\n").getAbsolutePath());
+		job.setExecutionBackend(new RemoteExecutionBackend(workerURL, TOKEN));
+
+		Thread thread = new Thread(job);
+		thread.start();
+		Thread.sleep(1500);
+		long start = System.currentTimeMillis();
+		job.abort("Execution was cancelled.");
+		thread.join(20000);
+
+		check(!thread.isAlive(), "abort: job finished");
+		check(System.currentTimeMillis() - start < 10000, "abort: returned within 10 s");
+		check("Execution was cancelled.".equals(job.getErrorMessage()), "abort: cancel message kept");
+		check(job.getProtXMLFile() == null, "abort: no result");
+	}
+
+
+	/**
+	 * A wrong URL or token and too large inputs are reported as errors.
+	 */
+	public void testRejected() throws IOException {
+		String pepXML = createFile("3.pep.xml", "<msms_pipeline_analysis/>\n").getAbsolutePath();
+
+		ProteinProphetRunnable job = createJob(new ArrayList<String>(), pepXML);
+		job.setExecutionBackend(new RemoteExecutionBackend(workerURL + "nothing", TOKEN));
+		job.run();
+		check((job.getErrorMessage() != null) && job.getErrorMessage().contains("404"),
+				"wrong URL: " + job.getErrorMessage());
+
+		job = createJob(new ArrayList<String>(), pepXML);
+		job.setExecutionBackend(new RemoteExecutionBackend(workerURL, "wrong"));
+		job.run();
+		check((job.getErrorMessage() != null) && job.getErrorMessage().contains("token"),
+				"wrong token: " + job.getErrorMessage());
+
+		job = createJob(new ArrayList<String>(), pepXML);
+		job.setExecutionBackend(new RemoteExecutionBackend(workerURL, null));
+		job.run();
+		check((job.getErrorMessage() != null) && job.getErrorMessage().contains("token"),
+				"missing token: " + job.getErrorMessage());
+
+		File large = new File(testDir, "large.pep.xml");
+		FileOutputStream os = new FileOutputStream(large);
+		try {
+			os.write(new byte[2 * 1024 * 1024]);
+		} finally {
+			os.close();
+		}
+		job = createJob(new ArrayList<String>(), large.getAbsolutePath());
+		job.setExecutionBackend(new RemoteExecutionBackend(workerURL, TOKEN));
+		job.run();
+		check((job.getErrorMessage() != null) && job.getErrorMessage().contains("maximal size"),
+				"upload limit: " + job.getErrorMessage());
+	}
+
+
+	/**
+	 * Aborting a job on a worker, which accepts connections but never
+	 * answers, returns after the abort timeout.
+	 */
+	public void testUnresponsiveWorker() throws Exception {
+		final ServerSocket serverSocket = new ServerSocket(0);
+		final List<Socket> sockets = new ArrayList<Socket>();
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						sockets.add(serverSocket.accept());
+					}
+				} catch (IOException e) {
+					// the socket was closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		ProteinProphetRunnable job = createJob(new ArrayList<String>(),
+				createFile("4.pep.xml", "<msms_pipeline_analysis/>\n").getAbsolutePath());
+		job.setExecutionBackend(new RemoteExecutionBackend("http://127.0.0.1:" + serverSocket.getLocalPort(), null));
+
+		Thread thread = new Thread(job);
+		thread.start();
+		Thread.sleep(1000);
+		long start = System.currentTimeMillis();
+		job.abort("Execution was cancelled.");
+		long abortTime = System.currentTimeMillis() - start;
+		thread.join(10000);
+		serverSocket.close();
+
+		check(abortTime < RemoteExecutionBackend.ABORT_TIMEOUT + 2000, "unresponsive: abort took " + abortTime + " ms");
+		check(!thread.isAlive(), "unresponsive: job finished");
+	}
+
+
+	public void stop() {
+		worker.stop();
+	}
+
+
+	/**
+	 * @param args the stand-in directory and a directory for the test files
+	 */
+	public static void main(String[] args) throws Exception {
+		File testDir = new File(args[1]);
+		testDir.mkdirs();
+
+		ProteinProphetWorkerTest test = new ProteinProphetWorkerTest(new File(args[0]), testDir);
+		try {
+			test.testRun();
+			test.testAbort();
+			test.testRejected();
+			test.testUnresponsiveWorker();
+		} finally {
+			test.stop();
+		}
+
+		System.out.println((failures == 0) ? "all checks passed" : (failures + " checks failed"));
+		System.exit((failures == 0) ? 0 : 1);
+	}
+}